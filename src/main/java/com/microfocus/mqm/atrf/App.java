@@ -20,38 +20,47 @@ package com.microfocus.mqm.atrf;
 import com.microfocus.mqm.atrf.alm.entities.*;
 import com.microfocus.mqm.atrf.alm.services.AlmQueryBuilder;
 import com.microfocus.mqm.atrf.alm.services.AlmWrapperService;
+import com.microfocus.mqm.atrf.alm.services.PartitionedRunFetcher;
+import com.microfocus.mqm.atrf.alm.services.RunPartition;
 import com.microfocus.mqm.atrf.core.configuration.ConfigurationUtilities;
 import com.microfocus.mqm.atrf.core.configuration.FetchConfiguration;
-import com.microfocus.mqm.atrf.core.configuration.ReturnCode;
+import com.microfocus.mqm.atrf.core.rest.CircuitBreaker;
+import com.microfocus.mqm.atrf.core.rest.CircuitOpenException;
+import com.microfocus.mqm.atrf.core.rest.Deadline;
+import com.microfocus.mqm.atrf.core.rest.DeadlineExceededException;
+import com.microfocus.mqm.atrf.core.rest.HTTPUtils;
+import com.microfocus.mqm.atrf.core.rest.RateLimiter;
 import com.microfocus.mqm.atrf.core.rest.RestStatusException;
+import com.microfocus.mqm.atrf.core.rest.SessionRegistry;
+import com.microfocus.mqm.atrf.core.sync.AdaptiveSendController;
+import com.microfocus.mqm.atrf.core.sync.BackfillState;
+import com.microfocus.mqm.atrf.core.sync.Bulk;
+import com.microfocus.mqm.atrf.core.sync.BulkSpool;
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
+import com.microfocus.mqm.atrf.core.sync.JobStatusTracker;
+import com.microfocus.mqm.atrf.core.sync.QuarantineFile;
+import com.microfocus.mqm.atrf.core.sync.SendWindow;
+import com.microfocus.mqm.atrf.core.sync.SyncJournal;
+import com.microfocus.mqm.atrf.core.xml.StreamingXmlWriter;
 import com.microfocus.mqm.atrf.octane.core.OctaneTestResultOutput;
 import com.microfocus.mqm.atrf.octane.entities.TestRunResultEntity;
 import com.microfocus.mqm.atrf.octane.services.OctaneWrapperService;
 import com.sun.org.apache.xerces.internal.util.XMLChar;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
+
+import java.io.*;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by berkovir on 08/12/2016.
@@ -61,16 +70,32 @@ public class App {
     private FetchConfiguration configuration;
     private AlmWrapperService almWrapper;
     private OctaneWrapperService octaneWrapper;
+    private volatile JobStatusTracker jobStatusTracker;
+    private BackfillState backfillState;
+    private SyncJournal journal;
+    private BulkSpool spool;
+    private QuarantineFile quarantine;
+    private volatile boolean octaneUnavailable;
+    private final AtomicInteger bulkIds = new AtomicInteger();
+    private SessionRegistry.Session almSession;
+    private SessionRegistry.Session octaneSession;
+    private boolean connected;
+    private boolean journalResumed;
+    private volatile boolean stopping;
 
     private Map<String, String> alm2OctaneTestingToolMapper = new HashMap<>();
     private DateFormat DATE_TIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");//2016-03-22 11:34:23
     private DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");//2016-03-22 11:34:23
 
     private final String OCTANE_RUN_PASSED_STATUS = "Passed";
-    private final String OCTANE_RUN_FAILED_STATUS = "Failed";
+    private static final String OCTANE_RUN_FAILED_STATUS = "Failed";
     private final String OCTANE_RUN_SKIPPED_STATUS = "Skipped";
     private Set<String> OCTANE_RUN_VALID_STATUS = new HashSet<>(Arrays.asList(OCTANE_RUN_PASSED_STATUS, OCTANE_RUN_FAILED_STATUS));
 
+    private static final int PIPELINE_QUEUE_CAPACITY = 2;
+    private static final long SPOOL_REPLAY_INTERVAL = 30 * 1000;
+    private static final long SPOOL_REPLAY_INTERVAL_MAX = 5 * 60 * 1000;
+
     public App(FetchConfiguration configuration) {
         this.configuration = configuration;
 
@@ -80,30 +105,103 @@ public class App {
         alm2OctaneTestingToolMapper.put("BUSINESS-PROCESS", "BPT");
     }
 
+    /**
+     * Runs the sync of configured ALM project and ALM Octane workspace.
+     * Failures are thrown as RuntimeException, so several instances can run in one process
+     */
     public void start() {
         if(hasSourceFile()){
             sendFromSourceFile(configuration.getSourceFile());
             return;
         }
 
+        try {
+            sync();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Runs one sync cycle. First cycle logs in and validates connectivity,
+     * next cycles reuse login sessions and reference caches. If cycle fails, next cycle connects again.
+     */
+    public void sync() {
+        try {
+            if (!connected) {
+                confValidation();
+                connected = true;
+            }
+
+            outputToOctane();
+
+            if (!isOutput()) {
+                getCreationStatus();
+            }
+            almWrapper.logCacheStatistics();
+        } catch (RuntimeException e) {
+            disconnect();
+            throw e;
+        } finally {
+            //polling thread of the cycle is released, next cycle creates its own tracker
+            JobStatusTracker tracker = jobStatusTracker;
+            if (tracker != null) {
+                tracker.close();
+            }
+        }
+    }
 
-        confValidation();
+    /**
+     * Stops the cycle in progress : no more bulks are fetched, bulks in flight are completed,
+     * so last sent run id is saved, and statuses of sent jobs are not awaited.
+     * Can be called from another thread
+     */
+    public void stop() {
+        stopping = true;
+        JobStatusTracker tracker = jobStatusTracker;
+        if (tracker != null) {
+            tracker.stop();
+        }
+    }
 
-        List<OctaneTestResultOutput> resultOutputs = outputToOctane();
+    private void disconnect() {
+        connected = false;
+        close();
+        //session might be expired, next cycle logs in again
+        if (almSession != null) {
+            almSession.invalidate();
+        }
+        if (octaneSession != null) {
+            octaneSession.invalidate();
+        }
+    }
 
-        getCreationStatus(resultOutputs);
+    public void close() {
+        if (almWrapper != null) {
+            almWrapper.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
     }
 
     private void sendFromSourceFile(String filePath){
         loginToOctane();
 
         logger.info("Reading source file : " + filePath);
-        try(FileInputStream inputStream = new FileInputStream(filePath)) {
-            String xmlData = IOUtils.toString(inputStream);
-            OctaneTestResultOutput output = octaneWrapper.postTestResults(xmlData);
-            logger.info(String.format("Bulk #1 : sending , job id=%s, %s", output.getId(), output.getStatus().toUpperCase()));
+        try {
+            File sourceFile = new File(filePath);
+            if (!sourceFile.isFile()) {
+                throw new FileNotFoundException(filePath);
+            }
+            try (JobStatusTracker tracker = new JobStatusTracker(octaneWrapper)) {
+                jobStatusTracker = tracker;
+                OctaneTestResultOutput output = octaneWrapper.postTestResults(out -> FileUtils.copyFile(sourceFile, out));
+                logger.info(String.format("Bulk #1 : sending , job id=%s, %s", output.getId(), output.getStatus().toUpperCase()));
+                jobStatusTracker.track(1, output);
 
-            getCreationStatus(Arrays.asList(output));
+                getCreationStatus();
+            }
         } catch (Exception e) {
             logger.info("Failed sendFromSourceFile : " + e.getMessage());
         }
@@ -121,44 +219,16 @@ public class App {
         }
     }
 
-    private void getCreationStatus(List<OctaneTestResultOutput> resultOutputs) {
+    /**
+     * Statuses of jobs are polled in background while bulks are sent, here waiting for jobs that are still not completed
+     */
+    private void getCreationStatus() {
         logger.info(System.lineSeparator());
-        logger.info("PHASE : get creation statuses");
-        sleep(10 * 1000);//wait at least 5 sec before to give time to octane to complete the creation
-        for (int i = 0; i < resultOutputs.size(); i++) {
-            OctaneTestResultOutput current = resultOutputs.get(i);
-            getCreationStatusInternal(configuration, i + 1, current);
-        }
-    }
-
-    private void getCreationStatusInternal(FetchConfiguration configuration, int bulkId, OctaneTestResultOutput output) {
-
-        int failsCount = 0;
-        boolean finished = false;
-        int sleepSize = Integer.parseInt(configuration.getSyncSleepBetweenPosts()) * 1000;
-        while (!finished) {
-            if (!output.getStatus().equals("success") && !output.getStatus().equals(OctaneTestResultOutput.FAILED_SEND_STATUS)) {
-                try {
-                    output = octaneWrapper.getTestResultStatus(output);
-                } catch (Exception e) {
-                    failsCount++;
-                    if (failsCount > 3) {
-                        logger.info(String.format("Bulk #%s : failed to get creation status ", bulkId));
-                        break;
-                    } else {
-                        logger.info(String.format("Bulk #%s : failed to get creation status, trial %s", bulkId, failsCount));
-                        sleep(sleepSize);
-                        continue;
-                    }
-                }
-            }
-
-            logger.info(String.format("Bulk #%s : creation status is %s", bulkId, output.getStatus().toUpperCase()));
-            if (!(output.getStatus().equals("running") || output.getStatus().equals("queued"))) {
-                finished = true;
-            } else {
-                sleep(sleepSize);
-            }
+        logger.info(String.format("PHASE : get creation statuses, %s jobs are not completed yet", jobStatusTracker.getPendingJobs()));
+        try {
+            jobStatusTracker.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -172,7 +242,7 @@ public class App {
         return hasSourceFile;
     }
 
-    private List<OctaneTestResultOutput> outputToOctane() {
+    private void outputToOctane() {
         if (!isOutput()) {
             logger.info(System.lineSeparator());
             logger.info("PHASE : send data to ALM Octane");
@@ -182,7 +252,16 @@ public class App {
         int fetchLimit = Integer.parseInt(configuration.getRunFilterFetchLimit());
 
         int pageSize = Math.min(bulkSize, fetchLimit);
-        AlmQueryBuilder queryBuilder = almWrapper.buildRunFilter(configuration);
+        if (journal == null) {
+            openJournal();
+        }
+        if (spool == null && Boolean.parseBoolean(configuration.getSyncSpoolEnabled())) {
+            spool = new BulkSpool(ConfigurationUtilities.getSpoolDirPath(configuration));
+        }
+        if (quarantine == null && Boolean.parseBoolean(configuration.getSyncBisectRejectedBulks())) {
+            quarantine = new QuarantineFile(ConfigurationUtilities.getQuarantineFilePath(configuration));
+        }
+        AlmQueryBuilder queryBuilder = almWrapper.buildRunFilter(configuration, journal.getWatermark());
         queryBuilder.addPageSize(pageSize);
 
 
@@ -191,8 +270,7 @@ public class App {
         try {
             expectedRunsCount = almWrapper.getExpectedRuns(queryBuilder);
         } catch (RestStatusException e) {
-            logger.error(String.format("Failed to execute Rest query in ALM. Validate Run Filter section in configuration. The received exception from ALM is %s", e.getMessage()));
-            System.exit(ReturnCode.FAILURE.getReturnCode());
+            throw new RuntimeException(String.format("Failed to execute Rest query in ALM. Validate Run Filter section in configuration. The received exception from ALM is %s", e.getMessage()), e);
         }
 
 
@@ -204,113 +282,636 @@ public class App {
         }
         logger.info(String.format("Expected bulks : %d", expectedBulks));
 
-        //LOOP OF SEND
-        long lastSentTime = 0;
-        int runStartIndex = 0;
-        int sleepBetweenPosts = Integer.parseInt(configuration.getSyncSleepBetweenPosts()) * 1000;
-
+        if (isOutput()) {
+            outputToFile(queryBuilder, expectedRunsCount, bulkSize);
+            return;
+        }
 
+        //PARTITIONED FETCH
+        PartitionedRunFetcher partitionedFetcher = null;
+        int fetchPartitions = Integer.parseInt(configuration.getAlmFetchPartitions());
+        if (StringUtils.isNotEmpty(configuration.getAlmRunFilterBackfillWindow())) {
+            partitionedFetcher = new PartitionedRunFetcher(almWrapper, queryBuilder, pageSize, fetchPartitions);
+            expectedRunsCount = Math.min(startBackfill(partitionedFetcher), fetchLimit);
+        } else if (fetchPartitions > 1) {
+            partitionedFetcher = new PartitionedRunFetcher(almWrapper, queryBuilder, pageSize, fetchPartitions);
+            partitionedFetcher.start(partitionedFetcher.splitById(fetchPartitions));
+        }
+        final PartitionedRunFetcher runFetcher = partitionedFetcher;
+        final int runsToFetch = expectedRunsCount;
+
+        //PIPELINE : fetch -> send, stages are connected by bounded queue,
+        //so next bulk is fetched from ALM while current bulk is sent to ALM Octane.
+        //Bulk is converted to xml while it is sent, directly to the connection.
+        //Creation status of sent bulk is polled in background.
+        //If spool is enabled, bulks that failed to be sent are replayed from spool by third stage
+        jobStatusTracker = new JobStatusTracker(octaneWrapper);
+        jobStatusTracker.setCompletionListener(journal::onJobCompleted);
+        bulkIds.set(0);
+        resumePendingJobs();
         long start = System.currentTimeMillis();
-        List<OctaneTestResultOutput> resultOutputs = new ArrayList<>();
-        for (int bulkId = 1; bulkId <= expectedBulks; bulkId++) {
+        BlockingQueue<Bulk> preparedBulks = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+        CountDownLatch sendStageDone = new CountDownLatch(1);
+        ExecutorService stages = Executors.newFixedThreadPool(2, new DaemonThreadFactory("sync-stage"));
+        try {
+            Future<?> fetchStage = stages.submit(() -> runFetchStage(queryBuilder, runFetcher, runsToFetch, preparedBulks));
+            Future<?> replayStage = spool != null ? stages.submit(() -> runReplayStage(sendStageDone)) : null;
+
+            try {
+                runSendStage(preparedBulks);
+            } finally {
+                sendStageDone.countDown();
+            }
+
+            fetchStage.get();
+            if (replayStage != null) {
+                replayStage.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Sending data to ALM Octane is interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            stages.shutdownNow();
+            if (partitionedFetcher != null) {
+                partitionedFetcher.close();
+            }
+        }
+
+        long end = System.currentTimeMillis();
+        logger.info(String.format("Finished sending data to ALM Octane in %d sec ", (end - start) / 1000));
+
+        if (backfillState != null) {
+            completeBackfill();
+        }
+    }
+
+    /**
+     * Date window backfill : the range from start date is split to date windows of execution date,
+     * windows that are not completed by previous runs are fetched concurrently
+     *
+     * @return number of expected runs
+     */
+    private int startBackfill(PartitionedRunFetcher partitionedFetcher) {
+        backfillState = new BackfillState(ConfigurationUtilities.getBackfillStateFilePath(configuration));
+        backfillState.load();
+
+        int windowDays = FetchConfiguration.ALM_RUN_FILTER_BACKFILL_WINDOW_WEEK.equals(configuration.getAlmRunFilterBackfillWindow()) ? 7 : 1;
+        List<RunPartition> allWindows = PartitionedRunFetcher.splitByDate(configuration.getAlmRunFilterStartFromDate(), windowDays);
+        RunPartition lastWindow = allWindows.get(allWindows.size() - 1);
+        List<RunPartition> windows = new ArrayList<>();
+        for (RunPartition window : allWindows) {
+            if (!backfillState.isCompleted(window.getName())) {
+                windows.add(window);
+            }
+        }
+        partitionedFetcher.countRuns(windows);
+
+        List<RunPartition> windowsToFetch = new ArrayList<>();
+        int expectedRuns = 0;
+        for (RunPartition window : windows) {
+            backfillState.register(window.getName(), window != lastWindow);
+            if (window.getExpectedRuns() == 0) {
+                backfillState.onWindowFetched(window.getName());
+            } else {
+                windowsToFetch.add(window);
+                expectedRuns += window.getExpectedRuns();
+            }
+        }
+        logger.info(String.format("Backfill : %s windows, %s are completed by previous runs, expected %s runs in %s windows",
+                allWindows.size(), allWindows.size() - windows.size(), expectedRuns, windowsToFetch.size()));
+
+        partitionedFetcher.setSplitPagesByPartition(true);
+        partitionedFetcher.start(windowsToFetch);
+        return expectedRuns;
+    }
+
+    /**
+     * When all windows are completed, highest sent run id is saved as last sent run id,
+     * so the sync can be continued by filter of LAST_SENT
+     */
+    private void completeBackfill() {
+        if (!backfillState.isBackfillCompleted()) {
+            logger.info("Backfill : not all windows are completed, run the tool again to continue");
+            return;
+        }
+        String maxSentRunId = backfillState.getMaxSentRunId();
+        String lastSentRunId = journal.getWatermark();
+        if (maxSentRunId != null && (StringUtils.isEmpty(lastSentRunId) || Long.parseLong(maxSentRunId) > Long.parseLong(lastSentRunId))) {
+            journal.commit(maxSentRunId);
+        }
+        logger.info(String.format("Backfill : all windows are completed, highest sent run id is %s", maxSentRunId));
+    }
 
-            logger.info(String.format("Bulk #%s : preparing", bulkId));
+    private void outputToFile(AlmQueryBuilder queryBuilder, int expectedRunsCount, int bulkSize) {
+        List<Run> runs = almWrapper.fetchRuns(queryBuilder);
+        almWrapper.fetchRunRelatedEntities(runs);
+        List<TestRunResultEntity> ngaRuns = prepareRunsForInjection(1, runs);
 
-            //4.1 GET DATA FROM ALM
-            queryBuilder.addStartIndex(runStartIndex + 1);
-            List<Run> runs = almWrapper.fetchRuns(queryBuilder);
-            almWrapper.fetchRunRelatedEntities(runs);
-            runStartIndex += runs.size();
+        File file = saveResults(configuration, ngaRuns);
+        String note = "";
+        if (runs.size() < expectedRunsCount) {
+            note = String.format("(first %s runs)", bulkSize);
+        }
+
+        logger.info(String.format("The results are saved to  %s: %s", note, file.getAbsolutePath()));
+    }
 
+    /**
+     * Stage 1 : get runs and their related entities from ALM and prepare them for injection.
+     * Requests of each bulk are limited by bulk deadline, its rest is left for sending the bulk.
+     * Preparation reads the ALM entity caches, so it is done on the same thread that fills them.
+     * If partitioned fetcher is provided, runs are fetched by several workers, each one fetches its own partition,
+     * and merged back in the order of partitions.
+     */
+    private void runFetchStage(AlmQueryBuilder queryBuilder, PartitionedRunFetcher partitionedFetcher, int expectedRuns, BlockingQueue<Bulk> out) {
+        String lastFetchedRunId = null;
+        int fetchedRuns = 0;
+        long bulkTimeout = Long.parseLong(configuration.getSyncBulkDeadline()) * 1000;
+        try {
+            while (fetchedRuns < expectedRuns && !stopping) {
+                int bulkId = bulkIds.incrementAndGet();
+                logger.info(String.format("Bulk #%s : preparing", bulkId));
+                long bulkDeadline = Deadline.after(bulkTimeout);
+
+                String fromRunId = lastFetchedRunId;
+                List<Run> runs = partitionedFetcher != null ? partitionedFetcher.fetchRuns()
+                        : Deadline.call(bulkDeadline, () -> CircuitBreaker.pauseWhileOpen(() -> almWrapper.fetchRuns(queryBuilder, fromRunId)));
+                if (runs.isEmpty()) {
+                    break;
+                }
+                lastFetchedRunId = runs.get(runs.size() - 1).getId();
+                fetchedRuns += runs.size();
+                String windowName = backfillState != null ? partitionedFetcher.getPagePartition().getName() : null;
+                if (backfillState == null) {
+                    runs = removeSentRuns(bulkId, runs);
+                }
+                List<Run> bulkRuns = runs;
+                Deadline.call(bulkDeadline, () -> CircuitBreaker.pauseWhileOpen(() -> {
+                    almWrapper.fetchRunRelatedEntities(bulkRuns);
+                    return null;
+                }));
+
+                List<TestRunResultEntity> ngaRuns = prepareRunsForInjection(bulkId, runs);
+                if (ngaRuns.isEmpty()) {
+                    logger.info(String.format("Bulk #%s : no runs to send", bulkId));
+                } else {
+                    if (backfillState != null) {
+                        backfillState.onBulkPrepared(windowName);
+                    }
+                    Bulk bulk = new Bulk(bulkId, ngaRuns, windowName);
+                    if (bulkDeadline != Deadline.NONE) {
+                        //time of waiting in the pipeline is not counted
+                        bulk.setTimeLeft(Math.max(bulkDeadline - System.currentTimeMillis(), 1));
+                    }
+                    out.put(bulk);
+                }
 
-            //4.2 SLEEP IF REQUIRED
-            long fromLastSent = System.currentTimeMillis() - lastSentTime;
-            long toSleep = sleepBetweenPosts - fromLastSent;
-            if (toSleep > 0) {
-                sleep(toSleep);
+                if (backfillState != null && partitionedFetcher.isPagePartitionFetched()) {
+                    backfillState.onWindowFetched(windowName);
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putEnd(out);
+        }
+    }
 
-            //4.3SEND/OUTPUT
-            List<TestRunResultEntity> ngaRuns = prepareRunsForInjection(bulkId, runs);
-            if (isOutput()) {
-                File file = saveResults(configuration, ngaRuns);
-                String note = "";
-                if (runStartIndex < expectedRunsCount) {
-                    note = String.format("(first %s runs)", bulkSize);
+    /**
+     * Stage 2 : send prepared bulks to ALM Octane in the order of their run ids, up to configured number of bulks at the same time.
+     * Last sent run id is advanced by send window, when all lower bulks are sent.
+     * Job of the sent bulk is passed to status tracker
+     */
+    private void runSendStage(BlockingQueue<Bulk> in) throws InterruptedException {
+        int sleepBetweenPosts = Integer.parseInt(configuration.getSyncSleepBetweenPosts()) * 1000;
+        AdaptiveSendController sendController = new AdaptiveSendController(Boolean.parseBoolean(configuration.getSyncAdaptiveThrottlingEnabled()),
+                sleepBetweenPosts, Integer.parseInt(configuration.getSyncAdaptiveThrottlingMaxJobsInFlight()));
+        int maxBulksInFlight = Integer.parseInt(configuration.getSyncMaxBulksInFlight());
+        Semaphore postPermits = new Semaphore(maxBulksInFlight);
+        //in backfill, bulks are not ordered by run id, last sent run id is saved when backfill is completed
+        SendWindow sendWindow = new SendWindow(backfillState == null ? lastSentRunId -> journal.commit(lastSentRunId) : lastSentRunId -> {
+        });
+        //time of last post start or completion, the sleep between posts is counted from it
+        AtomicLong lastSentTime = new AtomicLong();
+        ExecutorService posters = Executors.newFixedThreadPool(maxBulksInFlight, new DaemonThreadFactory("octane-post"));
+
+        try {
+            while (true) {
+                Bulk bulk = in.take();
+                if (bulk.isEnd()) {
+                    break;
+                }
+                if (stopping) {
+                    //prepared bulk is not sent, it will be fetched again by next sync
+                    continue;
                 }
 
-                logger.info(String.format("The results are saved to  %s: %s", note, file.getAbsolutePath()));
-                System.exit(0);
-            } else {
+                //WAIT IF TOO MANY JOBS ARE NOT COMPLETED IN ALM OCTANE
+                jobStatusTracker.awaitPendingJobsBelow(sendController.getJobsInFlightLimit());
 
-                String firstRunId = ngaRuns.get(0).getRunId();
-                String lastRunId = ngaRuns.get(ngaRuns.size() - 1).getRunId();
-                OctaneTestResultOutput currentOutput = null;
-                try {
-                    currentOutput = sendResults(bulkId, ngaRuns);
-                    lastSentTime = System.currentTimeMillis();
-                    ConfigurationUtilities.saveLastSentRunId(lastRunId);
-                    logger.info(String.format("Bulk #%s : sending %s runs , run ids from %s to %s , job id=%s, %s",
-                            bulkId, ngaRuns.size(), firstRunId, lastRunId, currentOutput.getId(), currentOutput.getStatus().toUpperCase()));
-
-                } catch (Exception e) {
-                    String msg = e.getMessage();
-                    int msgLength = 350;
-                    if (msg.length() > msgLength) {
-                        msg = msg.substring(0, msgLength);
+                //WAIT FOR FREE SLOT
+                postPermits.acquire();
+
+                //SLEEP IF REQUIRED, bulks are only spooled while ALM Octane is not available
+                long fromLastSent = System.currentTimeMillis() - lastSentTime.get();
+                long toSleep = sendController.getDelay() - fromLastSent;
+                if (toSleep > 0 && !(spool != null && octaneUnavailable)) {
+                    sleep(toSleep);
+                }
+
+                //SEND
+                sendWindow.open(bulk.getBulkId(), bulk.getLastRunId());
+                lastSentTime.set(System.currentTimeMillis());
+                posters.submit(() -> {
+                    try {
+                        Deadline.call(Deadline.after(bulk.getTimeLeft()), () -> {
+                            sendBulk(bulk, sendController, sendWindow, lastSentTime);
+                            return null;
+                        });
+                    } finally {
+                        postPermits.release();
                     }
-                    logger.info(String.format("Bulk #%s : failed to send run ids from %s to %s: %s", bulkId, firstRunId, lastRunId, msg));
+                });
+            }
 
-                    currentOutput = new OctaneTestResultOutput();
-                    currentOutput.put(OctaneTestResultOutput.FIELD_STATUS, OctaneTestResultOutput.FAILED_SEND_STATUS);
+            //WAIT FOR BULKS IN FLIGHT
+            posters.shutdown();
+            posters.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            posters.shutdownNow();
+        }
+    }
+
+    private void sendBulk(Bulk bulk, AdaptiveSendController sendController, SendWindow sendWindow, AtomicLong lastSentTime) {
+        int bulkId = bulk.getBulkId();
+        List<TestRunResultEntity> ngaRuns = bulk.getTestRunResults();
+        String firstRunId = bulk.getFirstRunId();
+        String lastRunId = bulk.getLastRunId();
+        OctaneTestResultOutput currentOutput = null;
+        Path spoolFile = spoolBulk(bulk);
+        if (spoolFile != null && octaneUnavailable) {
+            keepInSpool(bulk, spoolFile, sendWindow, "ALM Octane is not available");
+            return;
+        }
+        long postStart = System.currentTimeMillis();
+        try {
+            //without spool, bulk waits while ALM Octane circuit is open, with spool it is kept in spool
+            currentOutput = spoolFile != null ? sendResults(ngaRuns, spoolFile) : CircuitBreaker.pauseWhileOpen(() -> sendResults(ngaRuns, null));
+            if (spoolFile != null) {
+                spool.remove(spoolFile);
+            }
+            long postEnd = System.currentTimeMillis();
+            lastSentTime.accumulateAndGet(postEnd, Math::max);
+            sendController.onPostSucceeded(postEnd - postStart, jobStatusTracker.getQueuedJobs());
+            journal.onBulkSent(firstRunId, lastRunId, currentOutput, bulk.getPartitionName());
+            sendWindow.close(bulkId, true);
+            if (backfillState != null) {
+                backfillState.onBulkSent(bulk.getPartitionName(), lastRunId, true);
+            }
+            logger.info(String.format("Bulk #%s : sending %s runs , run ids from %s to %s , job id=%s, %s",
+                    bulkId, ngaRuns.size(), firstRunId, lastRunId, currentOutput.getId(), currentOutput.getStatus().toUpperCase()));
+
+        } catch (Exception e) {
+            String msg = e.getMessage();
+            int msgLength = 350;
+            if (msg != null && msg.length() > msgLength) {
+                msg = msg.substring(0, msgLength);
+            }
+            logger.info(String.format("Bulk #%s : failed to send run ids from %s to %s: %s", bulkId, firstRunId, lastRunId, msg));
+            if (quarantine != null && isRejected(e)) {
+                if (spoolFile != null) {
+                    spool.remove(spoolFile);
+                }
+                sendBisected(bulk, (RestStatusException) e, sendWindow);
+                return;
+            }
+            sendController.onPostFailed();
+            if (spoolFile != null) {
+                if (isRejected(e)) {
+                    //bulk fails as without spool, its file does not block replay of other bulks
+                    rejectSpooled(bulkId, spoolFile, firstRunId, lastRunId);
+                } else {
+                    if (isOctaneUnavailable(e)) {
+                        octaneUnavailable = true;
+                    }
+                    keepInSpool(bulk, spoolFile, sendWindow, "failed to send");
+                    return;
                 }
-                resultOutputs.add(currentOutput);
             }
+            sendWindow.close(bulkId, false);
+            if (backfillState != null) {
+                backfillState.onBulkSent(bulk.getPartitionName(), lastRunId, false);
+            }
+
+            currentOutput = new OctaneTestResultOutput();
+            currentOutput.put(OctaneTestResultOutput.FIELD_STATUS, OctaneTestResultOutput.FAILED_SEND_STATUS);
         }
+        jobStatusTracker.track(bulkId, currentOutput);
+    }
 
-        long end = System.currentTimeMillis();
-        logger.info(String.format("Finished sending data to ALM Octane in %d sec ", (end - start) / 1000));
-        return resultOutputs;
+    /**
+     * Bulk that is rejected by ALM Octane is split in halves recursively and the halves are sent again,
+     * until rejected runs are isolated. Rejected runs are added to quarantine file and the bulk is counted as sent.
+     * If a half fails to be sent for other reason, the bulk is counted as failed, its halves that were sent are skipped by next sync
+     */
+    private void sendBisected(Bulk bulk, RestStatusException rejection, SendWindow sendWindow) {
+        int bulkId = bulk.getBulkId();
+        logger.info(String.format("Bulk #%s : rejected by ALM Octane, splitting the bulk to isolate rejected runs", bulkId));
+        boolean sent = false;
+        try {
+            int quarantined = bisect(bulk, bulk.getTestRunResults(), rejection);
+            sent = true;
+            logger.info(String.format("Bulk #%s : %s of %s runs are rejected by ALM Octane, they are added to %s",
+                    bulkId, quarantined, bulk.getTestRunResults().size(), quarantine.getPath()));
+        } catch (Exception e) {
+            logger.info(String.format("Bulk #%s : failed to send split bulk : %s", bulkId, e.getMessage()));
+            OctaneTestResultOutput failedOutput = new OctaneTestResultOutput();
+            failedOutput.put(OctaneTestResultOutput.FIELD_STATUS, OctaneTestResultOutput.FAILED_SEND_STATUS);
+            jobStatusTracker.track(bulkId, failedOutput);
+        } finally {
+            sendWindow.close(bulkId, sent);
+            if (backfillState != null) {
+                backfillState.onBulkSent(bulk.getPartitionName(), bulk.getLastRunId(), sent);
+            }
+        }
     }
 
-    private File saveResults(FetchConfiguration configuration, List<TestRunResultEntity> runResults) {
+    /**
+     * @return number of quarantined runs
+     */
+    private int bisect(Bulk bulk, List<TestRunResultEntity> runs, RestStatusException rejection) throws IOException {
+        if (runs.size() == 1) {
+            TestRunResultEntity run = runs.get(0);
+            String error = rejection.getResponse().getStatusCode() + " " + rejection.getMessage();
+            quarantine.add(run.getRunId(), run.getRunId(), error, out -> convertToXml(runs, out, true));
+            logger.info(String.format("Bulk #%s : run id %s is rejected by ALM Octane", bulk.getBulkId(), run.getRunId()));
+            return 1;
+        }
+        int middle = runs.size() / 2;
+        return sendPart(bulk, runs.subList(0, middle)) + sendPart(bulk, runs.subList(middle, runs.size()));
+    }
 
-        List<TestRunResultEntity> myRunResults = runResults;
-        File file = new File(configuration.getOutputFile());
-        StreamResult result = new StreamResult(file);
-        convertToXml(myRunResults, result, true);
-        return file;
+    private int sendPart(Bulk bulk, List<TestRunResultEntity> runs) throws IOException {
+        int partId = bulkIds.incrementAndGet();
+        String firstRunId = runs.get(0).getRunId();
+        String lastRunId = runs.get(runs.size() - 1).getRunId();
+        OctaneTestResultOutput output;
+        try {
+            output = CircuitBreaker.pauseWhileOpen(() -> sendResults(runs, null));
+        } catch (RestStatusException e) {
+            if (isRejected(e)) {
+                return bisect(bulk, runs, e);
+            }
+            throw e;
+        }
+        journal.onBulkSent(firstRunId, lastRunId, output, bulk.getPartitionName());
+        logger.info(String.format("Bulk #%s : sending %s runs of bulk #%s , run ids from %s to %s , job id=%s, %s",
+                partId, runs.size(), bulk.getBulkId(), firstRunId, lastRunId, output.getId(), output.getStatus().toUpperCase()));
+        jobStatusTracker.track(partId, output);
+        return 0;
+    }
+
+    /**
+     * Bulk is rejected by ALM Octane, if its content is not valid. Sending the same content again is rejected again
+     */
+    private static boolean isRejected(Exception e) {
+        if (!(e instanceof RestStatusException)) {
+            return false;
+        }
+        int status = ((RestStatusException) e).getResponse().getStatusCode();
+        return status >= 400 && status < 500 && status != 401 && status != 403 && status != 407 && status != 408 && status != 429;
     }
 
-    private OctaneTestResultOutput sendResults(int bulkId, List<TestRunResultEntity> runResults) {
+    /**
+     * ALM Octane is not available : it is not reachable, returns server errors, throttles requests or its circuit is open.
+     * While it is not available, new bulks are only spooled
+     */
+    private static boolean isOctaneUnavailable(Exception e) {
+        if (e instanceof CircuitOpenException || e instanceof DeadlineExceededException) {
+            return true;
+        }
+        if (e instanceof RestStatusException) {
+            int status = ((RestStatusException) e).getResponse().getStatusCode();
+            return status == 0 || status >= 500 || status == 429 || status == 408;
+        }
+        return HTTPUtils.isTransportFailure(e);
+    }
+
+    /**
+     * Converted bulk is written to spool before it is sent, so it is not lost if ALM Octane is not available
+     *
+     * @return spool file of the bulk, null if spool is not enabled or failed to write
+     */
+    private Path spoolBulk(Bulk bulk) {
+        if (spool == null) {
+            return null;
+        }
+        try {
+            return spool.write(bulk.getFirstRunId(), bulk.getLastRunId(), out -> convertToXml(bulk.getTestRunResults(), out, false));
+        } catch (IOException e) {
+            logger.error(String.format("Bulk #%s : failed to write to spool, sending without spool : %s", bulk.getBulkId(), e.getMessage()));
+            return null;
+        }
+    }
 
-        StringWriter writer = new StringWriter();
-        StreamResult result = new StreamResult(writer);
+    /**
+     * Bulk that is kept in spool is replayed by replay stage, so it is counted as sent and does not hold last sent run id
+     */
+    private void keepInSpool(Bulk bulk, Path spoolFile, SendWindow sendWindow, String reason) {
+        spool.release(spoolFile);
+        sendWindow.close(bulk.getBulkId(), true);
+        if (backfillState != null) {
+            backfillState.onBulkSent(bulk.getPartitionName(), bulk.getLastRunId(), true);
+        }
+        logger.info(String.format("Bulk #%s : %s, run ids from %s to %s are kept in spool for replay",
+                bulk.getBulkId(), reason, bulk.getFirstRunId(), bulk.getLastRunId()));
+    }
 
-        convertToXml(runResults, result, false);
-        String xmlData = writer.toString();
+    /**
+     * Stage 3 : send bulks that are kept in spool by this or previous runs.
+     * Spool is replayed periodically while new bulks are sent and once more when sending is finished.
+     * While replay fails, its interval is doubled up to maximum
+     */
+    private void runReplayStage(CountDownLatch sendStageDone) {
+        long interval = SPOOL_REPLAY_INTERVAL;
+        try {
+            while (!stopping) {
+                boolean lastPass = sendStageDone.getCount() == 0;
+                if (replaySpool()) {
+                    interval = SPOOL_REPLAY_INTERVAL;
+                } else {
+                    interval = Math.min(interval * 2, SPOOL_REPLAY_INTERVAL_MAX);
+                    if (!lastPass) {
+                        logger.info(String.format("Spool : next replay in %d sec", interval / 1000));
+                    }
+                }
+                if (lastPass) {
+                    break;
+                }
+                sendStageDone.await(interval, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        int trial = 0;
-        OctaneTestResultOutput output = null;
-        boolean finished = false;
-        while (!finished) {
+    /**
+     * Spooled bulk that is rejected by ALM Octane is quarantined if quarantine is enabled, otherwise it is moved to rejected directory.
+     * Bulk that failed for other reason stays in spool, other bulks are replayed
+     *
+     * @return false if ALM Octane is not available, rest of spool is replayed by next pass
+     */
+    private boolean replaySpool() {
+        int sleepBetweenPosts = Integer.parseInt(configuration.getSyncSleepBetweenPosts()) * 1000;
+        for (Path file : spool.list()) {
+            if (stopping) {
+                break;
+            }
+            if (!spool.claim(file)) {
+                continue;
+            }
+            int bulkId = bulkIds.incrementAndGet();
+            String[] runRange = BulkSpool.getRunRange(file);
+            OctaneTestResultOutput output;
             try {
-                trial++;
-                output = octaneWrapper.postTestResults(xmlData);
-                finished = true;
-            } catch (Exception ex) {
-                if (trial == 3) {
-                    throw ex;
+                output = octaneWrapper.postTestResults(out -> FileUtils.copyFile(file.toFile(), out));
+            } catch (Exception e) {
+                if (isRejected(e)) {
+                    if (quarantine != null) {
+                        quarantineSpooled(bulkId, file, runRange, (RestStatusException) e);
+                    } else {
+                        rejectSpooled(bulkId, file, runRange[0], runRange[1]);
+                    }
+                    continue;
+                }
+                spool.release(file);
+                logger.info(String.format("Bulk #%s : failed to replay spooled run ids from %s to %s : %s", bulkId, runRange[0], runRange[1], e.getMessage()));
+                if (isOctaneUnavailable(e)) {
+                    octaneUnavailable = true;
+                    return false;
+                }
+                continue;
+            }
+            octaneUnavailable = false;
+            spool.remove(file);
+            journal.onBulkSent(runRange[0], runRange[1], output, null);
+            logger.info(String.format("Bulk #%s : replaying spooled run ids from %s to %s , job id=%s, %s",
+                    bulkId, runRange[0], runRange[1], output.getId(), output.getStatus().toUpperCase()));
+            jobStatusTracker.track(bulkId, output);
+            sleep(sleepBetweenPosts);
+        }
+        if (!stopping) {
+            octaneUnavailable = false;
+        }
+        return true;
+    }
+
+    private void rejectSpooled(int bulkId, Path file, String firstRunId, String lastRunId) {
+        Path rejectedFile = spool.reject(file);
+        if (rejectedFile != null) {
+            logger.info(String.format("Bulk #%s : run ids from %s to %s are rejected by ALM Octane, spooled bulk is moved to %s",
+                    bulkId, firstRunId, lastRunId, rejectedFile.toFile().getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Spooled bulk is not split, as its runs are not available, the whole bulk is added to quarantine file
+     */
+    private void quarantineSpooled(int bulkId, Path file, String[] runRange, RestStatusException rejection) {
+        try {
+            quarantine.add(runRange[0], runRange[1], rejection.getResponse().getStatusCode() + " " + rejection.getMessage(),
+                    out -> FileUtils.copyFile(file.toFile(), out));
+            spool.remove(file);
+            logger.info(String.format("Bulk #%s : spooled run ids from %s to %s are rejected by ALM Octane, they are added to %s",
+                    bulkId, runRange[0], runRange[1], quarantine.getPath()));
+        } catch (IOException e) {
+            spool.release(file);
+            logger.error(String.format("Bulk #%s : failed to add spooled bulk to quarantine file : %s", bulkId, e.getMessage()));
+        }
+    }
+
+    /**
+     * Journal holds last sent run id, sent bulks above it and their jobs.
+     * On first use, last sent run id is taken from lastSent file of previous versions
+     */
+    private void openJournal() {
+        journal = new SyncJournal(ConfigurationUtilities.getJournalFilePath(configuration));
+        if (!journal.load()) {
+            String lastSentRunId = ConfigurationUtilities.readLastSentRunId(configuration);
+            if (StringUtils.isNotEmpty(lastSentRunId)) {
+                //lastSent file is kept till the value is in the journal, otherwise it is migrated by next run
+                if (journal.commit(lastSentRunId)) {
+                    ConfigurationUtilities.markLastSentRunIdMigrated(configuration);
+                    logger.info("Journal : last sent run id " + lastSentRunId + " is migrated from lastSent file");
+                } else {
+                    logger.warn("Journal : failed to migrate last sent run id " + lastSentRunId + " from lastSent file, it is migrated by next run");
                 }
-                logger.warn(String.format("Bulk #%s : failed to send, trial %s", bulkId, trial));
-                //sleep before next send
-                sleep(5000);
+            }
+        }
+    }
+
+    /**
+     * Jobs of bulks that were sent before the tool was stopped are tracked again, instead of sending their runs again
+     *
+     * Resumed jobs take first bulk ids
+     */
+    private void resumePendingJobs() {
+        if (journalResumed) {
+            return;
+        }
+        journalResumed = true;
+        for (OctaneTestResultOutput output : journal.getPendingJobs()) {
+            int bulkId = bulkIds.incrementAndGet();
+            logger.info(String.format("Bulk #%s : resuming status polling of job id=%s, %s", bulkId, output.getId(), output.getStatus().toUpperCase()));
+            jobStatusTracker.track(bulkId, output);
+        }
+    }
 
+    /**
+     * @return runs that are not sent by bulks above last sent run id
+     */
+    private List<Run> removeSentRuns(int bulkId, List<Run> runs) {
+        List<Run> notSent = new ArrayList<>();
+        for (Run run : runs) {
+            if (!journal.isSent(run.getId())) {
+                notSent.add(run);
             }
         }
+        if (notSent.size() < runs.size()) {
+            logger.info(String.format("Bulk #%s : %s runs are skipped as they were sent before the tool was stopped", bulkId, runs.size() - notSent.size()));
+        }
+        return notSent;
+    }
+
+    private void putEnd(BlockingQueue<Bulk> queue) {
+        try {
+            queue.put(Bulk.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File saveResults(FetchConfiguration configuration, List<TestRunResultEntity> runResults) {
 
-        return output;
+        File file = new File(configuration.getOutputFile());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            convertToXml(runResults, out, true);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return file;
+    }
 
+    /**
+     * Failed post is retried by RetryPolicy of the connector
+     */
+    private OctaneTestResultOutput sendResults(List<TestRunResultEntity> runResults, Path spoolFile) {
+        if (spoolFile != null) {
+            return octaneWrapper.postTestResults(out -> FileUtils.copyFile(spoolFile.toFile(), out));
+        }
+        return octaneWrapper.postTestResults(out -> convertToXml(runResults, out, false));
     }
 
     private void sleep(long sleepSize) {
@@ -324,10 +925,21 @@ public class App {
     private void loginToAlm() {
         try {
             logger.info("ALM : Validating login configuration ...");
-            almWrapper = new AlmWrapperService(configuration.getAlmServerUrl(), configuration.getAlmDomain(), configuration.getAlmProject());
+            SessionRegistry.Session session = SessionRegistry.getSession(configuration.getAlmServerUrl(), configuration.getAlmUser());
+            almSession = session;
+            RateLimiter.configure(configuration.getAlmServerUrl(),
+                    Integer.parseInt(configuration.getAlmRateLimitRead()), Integer.parseInt(configuration.getAlmRateLimitWrite()));
+            session.getRestConnector().setSessionTtl(Integer.parseInt(configuration.getAlmSessionTtl()));
+            almWrapper = new AlmWrapperService(session.getRestConnector(), configuration.getAlmDomain(), configuration.getAlmProject());
+            almWrapper.setMaxConcurrentRequests(Integer.parseInt(configuration.getAlmMaxConcurrentRequests()));
+            almWrapper.setGzipResponses(Boolean.parseBoolean(configuration.getAlmGzipResponses()));
+            almWrapper.setReferenceCacheSize(Integer.parseInt(configuration.getAlmReferenceCacheSize()));
             try {
-                almWrapper.login(configuration.getAlmUser(), configuration.getAlmPassword());
-                logger.info("ALM : Login successful");
+                if (session.login(() -> almWrapper.login(configuration.getAlmUser(), configuration.getAlmPassword()))) {
+                    logger.info("ALM : Login successful");
+                } else {
+                    logger.info("ALM : Reusing session of " + configuration.getAlmUser());
+                }
             } catch (RestStatusException e) {
                 //validate credentials
                 if (e.getResponse().getStatusCode() == 401) {
@@ -358,9 +970,12 @@ public class App {
             } else {
                 throw new RuntimeException("Failed to connect to ALM project " + configuration.getAlmProject());
             }
+
+            if (Boolean.parseBoolean(configuration.getAlmReferenceCachePersistent())) {
+                almWrapper.enablePersistentCache(configuration.getAlmReferenceCacheDir());
+            }
         } catch (Exception e) {
-            logger.error("ALM : " + e.getMessage());
-            System.exit(ReturnCode.FAILURE.getReturnCode());
+            throw new RuntimeException("ALM : " + e.getMessage(), e);
         }
     }
 
@@ -370,10 +985,19 @@ public class App {
             long sharedSpaceId = Long.parseLong(configuration.getOctaneSharedSpaceId());
             long workspaceId = Long.parseLong(configuration.getOctaneWorkspaceId());
 
-            octaneWrapper = new OctaneWrapperService(configuration.getOctaneServerUrl(), sharedSpaceId, workspaceId);
+            SessionRegistry.Session session = SessionRegistry.getSession(configuration.getOctaneServerUrl(), configuration.getOctaneUser());
+            octaneSession = session;
+            RateLimiter.configure(configuration.getOctaneServerUrl(),
+                    Integer.parseInt(configuration.getOctaneRateLimitRead()), Integer.parseInt(configuration.getOctaneRateLimitWrite()));
+            session.getRestConnector().setSessionTtl(Integer.parseInt(configuration.getOctaneSessionTtl()));
+            octaneWrapper = new OctaneWrapperService(session.getRestConnector(), sharedSpaceId, workspaceId);
+            octaneWrapper.setGzipUploads(Boolean.parseBoolean(configuration.getOctaneGzipUploads()));
             try {
-                octaneWrapper.login(configuration.getOctaneUser(), configuration.getOctanePassword());
-                logger.info("ALM Octane : Login successful");
+                if (session.login(() -> octaneWrapper.login(configuration.getOctaneUser(), configuration.getOctanePassword()))) {
+                    logger.info("ALM Octane : Login successful");
+                } else {
+                    logger.info("ALM Octane : Reusing session of " + configuration.getOctaneUser());
+                }
             } catch (RestStatusException e) {
                 //validate credentials
                 if (e.getResponse().getStatusCode() == 401) {
@@ -403,8 +1027,7 @@ public class App {
                 throw new RuntimeException("Failed to connect to ALM Octane workspace " + workspaceId);
             }
         } catch (Exception e) {
-            logger.error("ALM Octane : " + e.getMessage());
-            System.exit(ReturnCode.FAILURE.getReturnCode());
+            throw new RuntimeException("ALM Octane : " + e.getMessage(), e);
         }
     }
 
@@ -532,70 +1155,48 @@ public class App {
         return value.substring(0, 255);
     }
 
-    private void convertToXml(List<TestRunResultEntity> runResults, StreamResult result, boolean formatXml) {
-
-        try {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-
-            // root elements
-            Document doc = docBuilder.newDocument();
-            Element rootElement = doc.createElement("test_result");
-            doc.appendChild(rootElement);
-
-
-            Element testRuns = doc.createElement("test_runs");
-            rootElement.appendChild(testRuns);
-
-            for (TestRunResultEntity runResult : runResults) {
-                Element testRun = doc.createElement("test_run");
-                testRuns.appendChild(testRun);
-
-                testRun.setAttribute("module", runResult.getModule());
-                testRun.setAttribute("package", runResult.getPackageValue());
-                testRun.setAttribute("class", runResult.getClassValue());
-                testRun.setAttribute("name", runResult.getTestName());
-
-                testRun.setAttribute("duration", runResult.getDuration());
-                testRun.setAttribute("status", runResult.getStatus());
-                testRun.setAttribute("started", runResult.getStartedTime());
-                testRun.setAttribute("external_report_url", runResult.getExternalReportUrl());
-                testRun.setAttribute("run_name", runResult.getRunName());
-
-                Element testFields = doc.createElement("test_fields");
-                testRun.appendChild(testFields);
-
-                if (StringUtils.isNotEmpty(runResult.getTestingToolType())) {
-                    Element testField = doc.createElement("test_field");
-                    testFields.appendChild(testField);
-                    testField.setAttribute("type", "Testing_Tool_Type");
-                    testField.setAttribute("value", runResult.getTestingToolType());
-                }
-
-                if (OCTANE_RUN_FAILED_STATUS.equals(runResult.getStatus())) {
-                    Element error = doc.createElement("error");
-                    testRun.appendChild(error);
-
-                    error.setAttribute("type", "Error");
-                    error.setAttribute("message", "For more details , goto ALM run : " + runResult.getExternalReportUrl());
-                }
+    /**
+     * Writes results to out and flushes it, out is not closed
+     */
+    static void convertToXml(List<TestRunResultEntity> runResults, OutputStream out, boolean formatXml) throws IOException {
+
+        //attributes are written in alphabetical order, as it was done by DOM serializer
+        StreamingXmlWriter writer = new StreamingXmlWriter(out, formatXml);
+        writer.writeStartDocument();
+        writer.writeStartElement("test_result");
+        writer.writeStartElement("test_runs");
+
+        for (TestRunResultEntity runResult : runResults) {
+            writer.writeStartElement("test_run")
+                    .writeAttribute("class", runResult.getClassValue())
+                    .writeAttribute("duration", runResult.getDuration())
+                    .writeAttribute("external_report_url", runResult.getExternalReportUrl())
+                    .writeAttribute("module", runResult.getModule())
+                    .writeAttribute("name", runResult.getTestName())
+                    .writeAttribute("package", runResult.getPackageValue())
+                    .writeAttribute("run_name", runResult.getRunName())
+                    .writeAttribute("started", runResult.getStartedTime())
+                    .writeAttribute("status", runResult.getStatus());
+
+            writer.writeStartElement("test_fields");
+            if (StringUtils.isNotEmpty(runResult.getTestingToolType())) {
+                writer.writeStartElement("test_field")
+                        .writeAttribute("type", "Testing_Tool_Type")
+                        .writeAttribute("value", runResult.getTestingToolType())
+                        .writeEndElement();
             }
+            writer.writeEndElement();
 
-
-            // write the content into xml file
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            if (formatXml) {
-                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-                //transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+            if (OCTANE_RUN_FAILED_STATUS.equals(runResult.getStatus())) {
+                writer.writeStartElement("error")
+                        .writeAttribute("message", "For more details , goto ALM run : " + runResult.getExternalReportUrl())
+                        .writeAttribute("type", "Error")
+                        .writeEndElement();
             }
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            DOMSource source = new DOMSource(doc);
-
-            transformer.transform(source, result);
-        } catch (Exception e) {
-            throw new RuntimeException(e.getMessage(), e);
+            writer.writeEndElement();
         }
+
+        writer.writeEndDocument();
     }
 
 }
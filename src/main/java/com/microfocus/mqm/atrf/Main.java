@@ -18,8 +18,13 @@
 package com.microfocus.mqm.atrf;
 
 import com.microfocus.mqm.atrf.core.configuration.CliParser;
-import com.microfocus.mqm.atrf.core.configuration.ConfigurationUtilities;
 import com.microfocus.mqm.atrf.core.configuration.FetchConfiguration;
+import com.microfocus.mqm.atrf.core.configuration.ReturnCode;
+import com.microfocus.mqm.atrf.core.rest.HttpConnectionPool;
+import com.microfocus.mqm.atrf.core.rest.RateLimiter;
+import com.microfocus.mqm.atrf.core.rest.RetryPolicy;
+import com.microfocus.mqm.atrf.core.rest.TransferStatistics;
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -42,6 +47,9 @@ public class Main {
 
     static final Logger logger = LogManager.getLogger();
 
+    //log4j shutdown hook is disabled in log4j2.xml, so daemon can log while it stops. Logs are flushed by this hook on any exit,
+    //in daemon mode they are flushed by the daemon, when it is stopped
+    private static final Thread logShutdownHook = new DaemonThreadFactory("log-shutdown").newThread(LogManager::shutdown);
 
     public static void main(String[] args) {
 
@@ -53,6 +61,7 @@ public class Main {
         cliParser.handleHelpAndVersionOptions(args);
 
         configureLog4J();
+        Runtime.getRuntime().addShutdownHook(logShutdownHook);
         logger.info(System.lineSeparator() + System.lineSeparator());
         logger.info("************************************************************************************");
         DateFormat dateFormatter = DateFormat.getDateInstance(DateFormat.DEFAULT, Locale.getDefault());
@@ -62,10 +71,35 @@ public class Main {
 
 
         FetchConfiguration configuration = cliParser.parse(args);
-        ConfigurationUtilities.setConfiguration(configuration);
 
-        App app = new App(configuration);
-        app.start();
+        boolean success = true;
+        try {
+            if (Boolean.parseBoolean(configuration.getDaemonEnabled())) {
+                SyncDaemon daemon = new SyncDaemon(configuration);
+                Runtime.getRuntime().removeShutdownHook(logShutdownHook);
+                daemon.start();
+            } else if (configuration.hasPairs()) {
+                SyncEngine engine = new SyncEngine(configuration);
+                try {
+                    success = engine.sync();
+                } finally {
+                    engine.close();
+                }
+            } else {
+                App app = new App(configuration);
+                app.start();
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            success = false;
+        }
+        HttpConnectionPool.logStatistics();
+        RetryPolicy.logStatistics();
+        RateLimiter.logStatistics();
+        TransferStatistics.logStatistics();
+        if (!success) {
+            System.exit(ReturnCode.FAILURE.getReturnCode());
+        }
 
         long end = System.currentTimeMillis();
         logger.info(String.format("Finished creating tests and test results on ALM Octane in %s seconds", (end - start) / 1000));
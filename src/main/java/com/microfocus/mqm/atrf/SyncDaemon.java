@@ -0,0 +1,118 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+package com.microfocus.mqm.atrf;
+
+import com.microfocus.mqm.atrf.core.configuration.FetchConfiguration;
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
+import com.microfocus.mqm.atrf.core.sync.SyncSchedule;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daemon mode : the tool keeps running and syncs runs created after last sent run by schedule.
+ * Login sessions, reference caches and connections are kept between cycles.
+ * On shutdown (SIGTERM, Ctrl+C) the cycle in progress stops fetching, completes bulks in flight
+ * and saves last sent run id before the process exits.
+ */
+public class SyncDaemon {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final long SHUTDOWN_TIMEOUT = 2 * 60 * 1000;
+
+    private SyncEngine engine;
+    private SyncSchedule schedule;
+    private DateFormat DATE_TIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private volatile boolean stopping;
+    private final Object lock = new Object();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public SyncDaemon(FetchConfiguration configuration) {
+        this.schedule = configuration.getDaemonSchedule();
+        //fails on start, and not after the first cycle, if schedule has no next time
+        schedule.getNextTime(System.currentTimeMillis());
+        this.engine = new SyncEngine(configuration);
+    }
+
+    /**
+     * Runs sync cycles until the process is stopped
+     */
+    public void start() {
+        Runtime.getRuntime().addShutdownHook(new DaemonThreadFactory("daemon-shutdown").newThread(this::shutdown));
+        logger.info("Daemon mode : syncing " + schedule);
+
+        try {
+            for (int cycle = 1; !stopping; cycle++) {
+                long start = System.currentTimeMillis();
+                logger.info(String.format("Daemon mode : starting cycle #%s", cycle));
+                boolean success = engine.sync();
+                long end = System.currentTimeMillis();
+                logger.info(String.format("Daemon mode : cycle #%s %s in %s seconds", cycle, success ? "finished" : "failed", (end - start) / 1000));
+
+                if (!stopping) {
+                    long next = schedule.getNextTime(end);
+                    logger.info("Daemon mode : next cycle at " + DATE_TIME_FORMAT.format(new Date(next)));
+                    awaitNextCycle(next);
+                }
+            }
+        } finally {
+            engine.close();
+            logger.info("Daemon mode : stopped");
+            stopped.countDown();
+        }
+    }
+
+    private void awaitNextCycle(long time) {
+        synchronized (lock) {
+            long toWait = time - System.currentTimeMillis();
+            while (!stopping && toWait > 0) {
+                try {
+                    lock.wait(toWait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopping = true;
+                }
+                toWait = time - System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void shutdown() {
+        logger.info("Daemon mode : stopping, waiting for bulks in flight");
+        stopping = true;
+        engine.stop();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+
+        try {
+            if (!stopped.await(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.warn(String.format("Daemon mode : not stopped in %s seconds, bulks in flight are not completed", SHUTDOWN_TIMEOUT / 1000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LogManager.shutdown();
+    }
+}
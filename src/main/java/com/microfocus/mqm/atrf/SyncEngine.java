@@ -0,0 +1,177 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+package com.microfocus.mqm.atrf;
+
+import com.microfocus.mqm.atrf.core.configuration.FetchConfiguration;
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Syncs several ALM project - ALM Octane workspace pairs in one process.
+ * Pairs are synced concurrently, limited by global number of pairs and by number of pairs per ALM server.
+ * Pair is started only when its ALM server has a free permit, so threads of the pool do not wait for permits
+ * while pairs of other servers could run.
+ * Pairs that connect to the same server share login session and connection pool.
+ * Engine can run several sync cycles, each pair keeps its sessions and caches between cycles.
+ */
+public class SyncEngine {
+
+    static final Logger logger = LogManager.getLogger();
+    private static final String PID = "PID";
+
+    private FetchConfiguration configuration;
+    private Map<FetchConfiguration, App> apps = new LinkedHashMap<>();
+    private Map<String, Semaphore> almServerPermits = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private int maxConcurrentPairs;
+    private volatile boolean stopping;
+
+    /**
+     * @param configuration configuration with pairs section, or configuration of single pair
+     */
+    public SyncEngine(FetchConfiguration configuration) {
+        this.configuration = configuration;
+        List<FetchConfiguration> pairs = configuration.hasPairs() ? configuration.getPairConfigurations() : Collections.singletonList(configuration);
+        for (FetchConfiguration pair : pairs) {
+            apps.put(pair, new App(pair));
+        }
+        maxConcurrentPairs = Math.min(Integer.parseInt(configuration.getSyncMaxConcurrentPairs()), pairs.size());
+        executor = Executors.newFixedThreadPool(maxConcurrentPairs, new DaemonThreadFactory("sync-pair"));
+        if (configuration.hasPairs()) {
+            logger.info(String.format("Syncing %s pairs, %s pairs at the same time", pairs.size(), maxConcurrentPairs));
+        }
+    }
+
+    /**
+     * Runs one sync cycle of all pairs
+     *
+     * @return true if all pairs are synced successfully
+     */
+    public boolean sync() {
+        List<Map.Entry<FetchConfiguration, App>> waiting = new LinkedList<>(apps.entrySet());
+        CompletionService<Boolean> results = new ExecutorCompletionService<>(executor);
+        int running = 0;
+        int failed = 0;
+        try {
+            while (!waiting.isEmpty() || running > 0) {
+                //start waiting pairs in configuration order, skipping pairs whose ALM server has no free permit
+                Iterator<Map.Entry<FetchConfiguration, App>> it = waiting.iterator();
+                while (running < maxConcurrentPairs && it.hasNext()) {
+                    Map.Entry<FetchConfiguration, App> entry = it.next();
+                    Semaphore permits = getAlmServerPermits(entry.getKey());
+                    if (permits.tryAcquire()) {
+                        it.remove();
+                        running++;
+                        results.submit(() -> {
+                            try {
+                                return syncPair(entry.getKey(), entry.getValue());
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    }
+                }
+
+                //wait for any pair to finish, it frees permit of its ALM server
+                if (!results.take().get()) {
+                    failed++;
+                }
+                running--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Sync of pairs is interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+
+        if (configuration.hasPairs()) {
+            logger.info(String.format("Finished syncing pairs : %s succeeded, %s failed", apps.size() - failed, failed));
+        }
+        return failed == 0;
+    }
+
+    /**
+     * Stops cycle in progress, pairs that are not started yet are skipped.
+     * Can be called from another thread
+     */
+    public void stop() {
+        stopping = true;
+        for (App app : apps.values()) {
+            app.stop();
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        for (App app : apps.values()) {
+            app.close();
+        }
+    }
+
+    private boolean syncPair(FetchConfiguration pair, App app) {
+        String pid = ThreadContext.get(PID);
+
+        //all log lines of the pair, including its worker threads, are marked by pair name
+        if (configuration.hasPairs()) {
+            ThreadContext.put(PID, pid + " " + pair.getPairName());
+        }
+        try {
+            if (stopping) {
+                return true;
+            }
+            if (configuration.hasPairs()) {
+                logger.info("Starting sync of pair " + pair.getPairName());
+            }
+            app.sync();
+            if (configuration.hasPairs()) {
+                logger.info("Finished sync of pair " + pair.getPairName());
+            }
+            return true;
+        } catch (Exception e) {
+            logger.error(configuration.hasPairs() ? String.format("Failed sync of pair %s : %s", pair.getPairName(), e.getMessage()) : e.getMessage());
+            return false;
+        } finally {
+            ThreadContext.put(PID, pid);
+        }
+    }
+
+    private Semaphore getAlmServerPermits(FetchConfiguration pair) {
+        return almServerPermits.computeIfAbsent(getHost(pair.getAlmServerUrl()),
+                host -> new Semaphore(Integer.parseInt(configuration.getSyncMaxConcurrentPairsPerAlmServer())));
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+}
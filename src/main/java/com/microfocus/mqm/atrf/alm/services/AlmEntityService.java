@@ -17,33 +17,56 @@
 
 package com.microfocus.mqm.atrf.alm.services;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.microfocus.mqm.atrf.alm.core.AlmEntity;
 import com.microfocus.mqm.atrf.alm.core.AlmEntityCollection;
 import com.microfocus.mqm.atrf.alm.core.AlmEntityDescriptor;
 import com.microfocus.mqm.atrf.alm.entities.*;
+import com.microfocus.mqm.atrf.core.rest.Deadline;
 import com.microfocus.mqm.atrf.core.rest.HTTPUtils;
 import com.microfocus.mqm.atrf.core.rest.Response;
 import com.microfocus.mqm.atrf.core.rest.RestConnector;
 import com.microfocus.mqm.atrf.core.rest.RestStatusException;
+import com.microfocus.mqm.atrf.core.rest.SupportRelogin;
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpStatus;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by berkovir on 21/11/2016.
  */
-public class AlmEntityService {
+public class AlmEntityService implements SupportRelogin {
 
     public static final int PAGE_SIZE = 1000;
     public static final int PAGE_SIZE_BY_ID = 200;
+    public static final int MAX_CONCURRENT_REQUESTS_DEFAULT = 4;
+
+    //limits number of concurrent GETs to the same ALM server, shared by all services of the process
+    private static final Map<String, Semaphore> serverPermits = new ConcurrentHashMap<>();
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
 
     RestConnector restConnector;
+    private Semaphore permits;
+    private ExecutorService requestExecutor;
     Map<String, String> jsonHeaders = new HashMap<>();
     private String domain;
     private String project;
+    private String user;
+    private String password;
 
 
     Map<String, AlmEntityDescriptor> typesMap = new HashMap<>();
@@ -70,8 +93,7 @@ public class AlmEntityService {
         String entityCollectionUrl = String.format(AlmRestConstants.ALM_REST_PROJECT_ENTITIES_FORMAT, getDomain(), getProject(), collectionName);
 
         String queryString = AlmQueryBuilder.create().addSelectedFields(AlmEntity.FIELD_ID).addPageSize(1).addQueryConditions(queryBuilder.getQueryConditions()).build();
-        String entitiesCollectionStr = restConnector.httpGet(entityCollectionUrl, Arrays.asList(queryString), jsonHeaders).getResponseData();
-        AlmEntityCollection col = parseCollection(entitiesCollectionStr);
+        AlmEntityCollection col = restConnector.httpGet(entityCollectionUrl, Arrays.asList(queryString), jsonHeaders, this::parseCollection);
         return col.getTotal();
     }
 
@@ -101,13 +123,56 @@ public class AlmEntityService {
         throw new AlmRestException(errorMsg);
     }
 
+    /**
+     * Defines how many GET requests can run concurrently against the ALM server of this service.
+     * The limit is per server, the first service that defines it for the server wins.
+     */
+    public synchronized void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        String serverKey = restConnector.getBaseUrl();
+        permits = serverPermits.computeIfAbsent(serverKey, k -> new Semaphore(maxConcurrentRequests, true));
+        if (requestExecutor != null) {
+            requestExecutor.shutdown();
+        }
+        requestExecutor = Executors.newFixedThreadPool(maxConcurrentRequests, new DaemonThreadFactory("alm-request"));
+    }
+
+    private synchronized Semaphore getPermits() {
+        if (permits == null) {
+            setMaxConcurrentRequests(MAX_CONCURRENT_REQUESTS_DEFAULT);
+        }
+        return permits;
+    }
+
+    private synchronized ExecutorService getRequestExecutor() {
+        getPermits();
+        return requestExecutor;
+    }
+
+    /**
+     * Releases request threads, the connector is not closed as it might be shared
+     */
+    public synchronized void close() {
+        if (requestExecutor != null) {
+            requestExecutor.shutdownNow();
+        }
+    }
+
     public AlmEntityCollection getEntities(String collectionName, AlmQueryBuilder qb) {
         String entityCollectionUrl = String.format(AlmRestConstants.ALM_REST_PROJECT_ENTITIES_FORMAT, getDomain(), getProject(), collectionName);
         String queryString = qb.build();
 
-        String json = restConnector.httpGet(entityCollectionUrl, Arrays.asList(queryString), jsonHeaders).getResponseData();
-        AlmEntityCollection coll = parseCollection(json);
-        return coll;
+        Semaphore myPermits = getPermits();
+        try {
+            myPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to send request to ALM", e);
+        }
+        try {
+            return restConnector.httpGet(entityCollectionUrl, Arrays.asList(queryString), jsonHeaders, this::parseCollection);
+        } finally {
+            myPermits.release();
+        }
     }
 
     public List<AlmEntity> getAllPagedEntities(String collectionName, AlmQueryBuilder qb) {
@@ -142,20 +207,51 @@ public class AlmEntityService {
         return ret;
     }
 
+    /**
+     * Get entities by ids, ids are requested in chunks of PAGE_SIZE_BY_ID. Chunks are requested concurrently.
+     */
     public List<AlmEntity> getEntitiesByIds(String collectionName, Set<String> ids, Collection<String> fields) {
         List<String> list = new ArrayList<>(ids);
-        List<AlmEntity> allEntities = new ArrayList<>();
+        if (list.size() <= PAGE_SIZE_BY_ID) {
+            //single chunk, no need to pass it to other thread
+            AlmQueryBuilder qb = AlmQueryBuilder.create().addQueryCondition("id", StringUtils.join(list, " OR ")).addSelectedFields(fields);
+            return list.isEmpty() ? new ArrayList<>() : getEntities(collectionName, qb).getEntities();
+        }
+
+        List<Future<AlmEntityCollection>> chunks = new ArrayList<>();
         for (int i = 0; i < list.size(); i = i + PAGE_SIZE_BY_ID) {
             int maxIndex = Math.min(i + PAGE_SIZE_BY_ID, list.size());
             List<String> subList = list.subList(i, maxIndex);
             AlmQueryBuilder qb = AlmQueryBuilder.create().addQueryCondition("id", StringUtils.join(subList, " OR ")).addSelectedFields(fields);
-            AlmEntityCollection coll = getEntities(collectionName, qb);
-            allEntities.addAll(coll.getEntities());
+            chunks.add(getRequestExecutor().submit(Deadline.propagate(() -> getEntities(collectionName, qb))));
+        }
+
+        List<AlmEntity> allEntities = new ArrayList<>();
+        try {
+            for (Future<AlmEntityCollection> chunk : chunks) {
+                allEntities.addAll(Deadline.await(chunk).getEntities());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while getting " + collectionName, e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } finally {
+            for (Future<AlmEntityCollection> chunk : chunks) {
+                chunk.cancel(true);
+            }
         }
 
         return allEntities;
     }
 
+    static RuntimeException unwrap(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        return new RuntimeException(e.getMessage(), e);
+    }
+
     public void setDomain(String domain) {
         this.domain = domain;
     }
@@ -172,47 +268,135 @@ public class AlmEntityService {
         return project;
     }
 
-    private AlmEntityCollection parseCollection(String entitiesCollectionStr) {
-        AlmEntityCollection coll = new AlmEntityCollection();
-        JSONObject jsonObj = new JSONObject(entitiesCollectionStr);
-        int total = jsonObj.getInt("TotalResults");
-        coll.setTotal(total);
-
-        JSONArray entitiesJArr = jsonObj.getJSONArray("entities");
-        for (int i = 0; i < entitiesJArr.length(); i++) {
-
-            JSONObject entObj = entitiesJArr.getJSONObject(i);
-            String type = entObj.getString("Type");
-
-            AlmEntity almEntity = createEntity(type);
-
-
-            JSONArray fieldsJArr = entObj.getJSONArray("Fields");
-            for (int j = 0; j < fieldsJArr.length(); j++) {
-                JSONObject fieldObj = fieldsJArr.getJSONObject(j);
-                String name = fieldObj.getString("Name");
-                JSONArray valuesArr = fieldObj.getJSONArray("values");
-                boolean filled = false;
-                if (valuesArr.length() > 0) {
-                    JSONObject valueObj = valuesArr.getJSONObject(0);
-                    if (valueObj.has("value")) {
-                        Object value = valueObj.get("value");
-                        almEntity.put(name, value);
-                        filled = true;
+    /**
+     * Reads ALM collection json token by token, entities are filled while reading, without building json tree :
+     * {"entities":[{"Fields":[{"Name":"id","values":[{"value":"1"}]}],"Type":"run"}],"TotalResults":1}
+     */
+    AlmEntityCollection parseCollection(InputStream body, Charset charset) throws IOException {
+        //byte parser is faster, but it supports unicode encodings only
+        try (JsonParser parser = StandardCharsets.UTF_8.equals(charset) ? jsonFactory.createParser(body) : jsonFactory.createParser(new InputStreamReader(body, charset))) {
+            AlmEntityCollection coll = new AlmEntityCollection();
+            boolean hasTotal = false;
+            boolean hasEntities = false;
+
+            expectToken(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("TotalResults".equals(key)) {
+                    coll.setTotal(parser.getValueAsInt());
+                    hasTotal = true;
+                } else if ("entities".equals(key)) {
+                    expectToken(parser, token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        coll.getEntities().add(parseEntity(parser));
                     }
+                    hasEntities = true;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (!hasTotal || !hasEntities) {
+                throw new JsonParseException(parser, "ALM collection must contain TotalResults and entities");
+            }
+            return coll;
+        }
+    }
+
+    private AlmEntity parseEntity(JsonParser parser) throws IOException {
+        String type = null;
+
+        //ALM sends Type after Fields, so fields are collected till entity can be created
+        Map<String, Object> fields = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("Type".equals(key)) {
+                type = parser.getValueAsString();
+            } else if ("Fields".equals(key)) {
+                expectToken(parser, token, JsonToken.START_ARRAY);
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    parseField(parser, fields);
                 }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        AlmEntity almEntity = createEntity(type);
+        almEntity.getFields().putAll(fields);
+        return almEntity;
+    }
 
-                if (!filled) {
-                    //the field has no value - just set it with null value
-                    almEntity.put(name, null);
+    /**
+     * Field holds list of values, only the first value is used. The field without values is set with null value
+     */
+    private void parseField(JsonParser parser, Map<String, Object> fields) throws IOException {
+        String name = null;
+        Object value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("Name".equals(key)) {
+                name = parser.getValueAsString();
+            } else if ("values".equals(key) && token == JsonToken.START_ARRAY) {
+                boolean first = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (first && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                        value = parseFirstValue(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    first = false;
                 }
+            } else {
+                parser.skipChildren();
             }
+        }
+
+        if (name == null) {
+            throw new JsonParseException(parser, "ALM entity field must contain Name");
+        }
+        fields.put(name, value);
+    }
 
-            //almEntity.put(AlmEntity.FIELD_URL, generateALMReferenceURL(almEntity));
-            coll.getEntities().add(almEntity);
+    private Object parseFirstValue(JsonParser parser) throws IOException {
+        Object value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("value".equals(key)) {
+                switch (token) {
+                    case VALUE_STRING:
+                        value = parser.getText();
+                        break;
+                    case VALUE_NUMBER_INT:
+                    case VALUE_NUMBER_FLOAT:
+                        value = parser.getNumberValue();
+                        break;
+                    case VALUE_TRUE:
+                    case VALUE_FALSE:
+                        value = parser.getBooleanValue();
+                        break;
+                    case VALUE_NULL:
+                        value = JSONObject.NULL;
+                        break;
+                    default:
+                        //ALM field values are scalars
+                        parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
         }
+        return value;
+    }
 
-        return coll;
+    private static void expectToken(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, String.format("Unexpected ALM response : expected %s, but found %s", expected, actual));
+        }
     }
 
     private List<String> parseProjects(String projectsjson) {
@@ -245,7 +429,7 @@ public class AlmEntityService {
         return projectList;
     }
 
-    private AlmEntity createEntity(String type) {
+    AlmEntity createEntity(String type) {
         AlmEntityDescriptor descriptor = typesMap.get(type);
         if (descriptor == null) {
             throw new RuntimeException("Unregistered type " + type);
@@ -261,14 +445,26 @@ public class AlmEntityService {
     }
 
     public boolean login(String user, String password) {
+        this.user = user;
+        this.password = password == null ? "" : password;
+        boolean result = loginInternal();
+        if (result) {
+            restConnector.setSupportRelogin(this);
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean relogin() {
+        return loginInternal();
+    }
+
+    private boolean loginInternal() {
         boolean ret = false;
 
         restConnector.clearAll();
 
-        if (password == null) {
-            password = "";
-        }
-
         //Get LWSSO COOKIE
         String xml = String.format(AlmRestConstants.ALM_AUTH_XML, user, password);
         Map<String, String> headers = new HashMap<>();
@@ -277,7 +473,7 @@ public class AlmEntityService {
         Response authResponse = restConnector.httpPost(AlmRestConstants.ALM_REST_AUTHENTICATION, xml, headers);
         if (authResponse.getStatusCode() == HttpStatus.SC_OK) {
             //GET SESSION cookies
-            Response sessionResponse = restConnector.httpPost(AlmRestConstants.ALM_REST_SESSION, null, null);
+            Response sessionResponse = restConnector.httpPost(AlmRestConstants.ALM_REST_SESSION, (String) null, null);
             if (sessionResponse.getStatusCode() == HttpStatus.SC_CREATED) {
                 ret = true;
             }
@@ -38,6 +38,7 @@ public class AlmQueryBuilder implements Serializable {
     private Map<String, String> queryConditions;
 
     public static final String PREPARED_FILTER = "_PREPARED_FILTER_";
+    private static final String FIELD_ID = "id";
 
     public static AlmQueryBuilder create() {
         return new AlmQueryBuilder();
@@ -66,6 +67,17 @@ public class AlmQueryBuilder implements Serializable {
         return this;
     }
 
+    /**
+     * Keyset pagination : the page starts after the entity with the given id, instead of skipping start-index entities.
+     * The page must be ordered by id. Previous id condition is replaced, it's safe as the cursor is always
+     * greater or equal to lower id bound of the first page.
+     */
+    public AlmQueryBuilder addStartAfterId(String id) {
+        addQueryCondition(FIELD_ID, ">" + id);
+        this.startIndex = null;
+        return this;
+    }
+
     public AlmQueryBuilder addPageSize(int pageSize) {
         this.pageSize = pageSize;
         return this;
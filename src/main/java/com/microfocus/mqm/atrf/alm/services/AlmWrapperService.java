@@ -19,14 +19,17 @@ package com.microfocus.mqm.atrf.alm.services;
 
 import com.microfocus.mqm.atrf.alm.core.AlmEntity;
 import com.microfocus.mqm.atrf.alm.entities.*;
-import com.microfocus.mqm.atrf.core.configuration.ConfigurationUtilities;
+import com.microfocus.mqm.atrf.core.cache.BoundedCache;
 import com.microfocus.mqm.atrf.core.configuration.FetchConfiguration;
+import com.microfocus.mqm.atrf.core.rest.Deadline;
 import com.microfocus.mqm.atrf.core.rest.RestConnector;
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 
 /**
@@ -35,34 +38,113 @@ import java.util.*;
 public class AlmWrapperService {
     static final Logger logger = LogManager.getLogger();
 
-    private Map<String, Release> releases = new HashMap<>();
-    private Map<String, TestSet> testSets = new HashMap<>();
-    private Map<String, Sprint> sprints = new HashMap<>();
-    private Map<String, Test> tests = new HashMap<>();
-    private Map<String, TestFolder> testFolders = new HashMap<>();
-    private Map<String, TestConfiguration> testConfigurations = new HashMap<>();
+    public static final int REFERENCE_CACHE_SIZE_DEFAULT = 10000;
+
+    private Map<String, Release> releases = new ConcurrentHashMap<>();
+    private Map<String, Sprint> sprints = new ConcurrentHashMap<>();
+
+    //reference entities of runs, bounded per type
+    private BoundedCache<String, TestSet> testSets;
+    private BoundedCache<String, Test> tests;
+    private BoundedCache<String, TestFolder> testFolders;
+    private BoundedCache<String, TestConfiguration> testConfigurations;
+
+    //optional, keeps reference entities between invocations of the tool
+    private PersistentReferenceCache persistentCache;
 
     TestFolder unattachedTestFolder;
 
+    RestConnector restConnector;
     AlmEntityService almEntityService;
 
+    //independent lookups of run related entities : tests->test folders, test sets, test configurations
+    private ExecutorService lookupExecutor = Executors.newFixedThreadPool(3, new DaemonThreadFactory("alm-lookup"));
+
     public AlmWrapperService(String almBaseUrl, String domain, String project) {
+        this(createRestConnector(almBaseUrl), domain, project);
+    }
 
-        RestConnector restConnector = new RestConnector();
-        restConnector.setBaseUrl(almBaseUrl);
+    /**
+     * @param restConnector connector to ALM server, might be shared with other projects of the same server
+     */
+    public AlmWrapperService(RestConnector restConnector, String domain, String project) {
+
+        this.restConnector = restConnector;
 
         almEntityService = new AlmEntityService(restConnector);
         almEntityService.setDomain(domain);
         almEntityService.setProject(project);
+
+        setReferenceCacheSize(REFERENCE_CACHE_SIZE_DEFAULT);
+    }
+
+    private static RestConnector createRestConnector(String almBaseUrl) {
+        RestConnector restConnector = new RestConnector();
+        restConnector.setBaseUrl(almBaseUrl);
+        return restConnector;
+    }
+
+    /**
+     * Defines how many entities of each reference type (tests, test folders, test sets, test configurations) are kept in memory.
+     * The size should not be less than bulk size, so all entities of the bulk are available while the bulk is prepared.
+     * Cached entities are dropped.
+     */
+    public void setReferenceCacheSize(int size) {
+        tests = new BoundedCache<>("tests", size);
+        testFolders = new BoundedCache<>("test folders", size);
+        testSets = new BoundedCache<>("test sets", size);
+        testConfigurations = new BoundedCache<>("test configurations", size);
+    }
+
+    /**
+     * Fills reference caches by entities stored by previous invocations, that are not modified in ALM since then,
+     * and stores entities that are fetched from now on.
+     * Should be called after login, as stored entities are validated in ALM.
+     *
+     * @param dir directory of cache files
+     */
+    public void enablePersistentCache(String dir) {
+        persistentCache = new PersistentReferenceCache(dir, almEntityService);
+        persistentCache.register(Test.TYPE, Test.COLLECTION_NAME, tests);
+        persistentCache.register(TestFolder.TYPE, TestFolder.COLLECTION_NAME, testFolders);
+        persistentCache.register(TestSet.TYPE, TestSet.COLLECTION_NAME, testSets);
+        persistentCache.register(TestConfiguration.TYPE, TestConfiguration.COLLECTION_NAME, testConfigurations);
+        persistentCache.load();
+    }
+
+    private void storeInPersistentCache(List<AlmEntity> entities) {
+        if (persistentCache != null) {
+            persistentCache.store(entities);
+        }
+    }
+
+    /**
+     * Releases lookup and request threads and persistent cache file, the connector is not closed as it might be shared
+     */
+    public void close() {
+        lookupExecutor.shutdownNow();
+        almEntityService.close();
+        if (persistentCache != null) {
+            persistentCache.close();
+        }
     }
 
-    public AlmQueryBuilder buildRunFilter(FetchConfiguration configuration) {
+    public void logCacheStatistics() {
+        tests.logStatistics();
+        testFolders.logStatistics();
+        testSets.logStatistics();
+        testConfigurations.logStatistics();
+    }
+
+    /**
+     * @param lastSentRunIdStr run id, that is used by startFromId filter of LAST_SENT
+     */
+    public AlmQueryBuilder buildRunFilter(FetchConfiguration configuration, String lastSentRunIdStr) {
         AlmQueryBuilder qb = AlmQueryBuilder.create();
         //StartFromId
         if (StringUtils.isNotEmpty(configuration.getAlmRunFilterStartFromId())) {
             int startFromId = 0;
             if (FetchConfiguration.ALM_RUN_FILTER_START_FROM_ID_LAST_SENT.equals(configuration.getAlmRunFilterStartFromId())) {
-                String lastSentRunIdStr = ConfigurationUtilities.readLastSentRunId();
                 int lastSentRunId = 0;
                 if (StringUtils.isNotEmpty(lastSentRunIdStr)) {
                     try {
@@ -132,22 +214,30 @@ public class AlmWrapperService {
         return qb;
     }
 
+    /**
+     * @return all tests of the runs, cached and fetched
+     */
     private List<AlmEntity> fetchTests(Collection<Run> runs) {
-        Set<String> ids = getIdsNotIncludedInSet(runs, Run.FIELD_TEST_ID, tests.keySet());
-        List<AlmEntity> myTests = Collections.emptyList();
+        Set<String> ids = getIds(runs, Run.FIELD_TEST_ID);
+        Map<String, Test> cachedTests = tests.getAll(ids);
+        List<AlmEntity> myTests = new ArrayList<>(cachedTests.values());
+        ids.removeAll(cachedTests.keySet());
         if (!ids.isEmpty()) {
             List<String> fields = Arrays.asList(Test.FIELD_NAME, Test.FIELD_PARENT_ID, Test.FIELD_SUBTYPE);
-            myTests = almEntityService.getEntitiesByIds(Test.COLLECTION_NAME, ids, fields);
-            for (AlmEntity test : myTests) {
+            List<AlmEntity> fetchedTests = almEntityService.getEntitiesByIds(Test.COLLECTION_NAME, ids, fields);
+            for (AlmEntity test : fetchedTests) {
                 tests.put(test.getId(), (Test) test);
             }
+            storeInPersistentCache(fetchedTests);
+            myTests.addAll(fetchedTests);
         }
 
         return myTests;
     }
 
     public List<AlmEntity> fetchTestFolders(Collection<AlmEntity> tests) {
-        Set<String> ids = getIdsNotIncludedInSet(tests, Test.FIELD_PARENT_ID, testFolders.keySet());
+        Set<String> ids = getIds(tests, Test.FIELD_PARENT_ID);
+        ids.removeAll(testFolders.getAll(ids).keySet());
         List<AlmEntity> myTestFolders = Collections.emptyList();
         if (!ids.isEmpty()) {
             List<String> fields = Arrays.asList(TestFolder.FIELD_NAME);
@@ -155,10 +245,22 @@ public class AlmWrapperService {
             for (AlmEntity e : myTestFolders) {
                 testFolders.put(e.getId(), (TestFolder) e);
             }
+            storeInPersistentCache(myTestFolders);
         }
         return myTestFolders;
     }
 
+    private Set<String> getIds(Collection<? extends AlmEntity> entities, String keyFieldName) {
+        Set<String> ids = new HashSet<>();
+        for (AlmEntity entity : entities) {
+            String id = entity.getString(keyFieldName);
+            if (StringUtils.isNotEmpty(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
     private Set<String> getIdsNotIncludedInSet(Collection<? extends AlmEntity> entities, String keyFieldName, Collection<String> ids) {
         Set<String> notIncludedIds = new HashSet<>();
         for (AlmEntity entity : entities) {
@@ -184,20 +286,23 @@ public class AlmWrapperService {
     }
 
     private Set<String> fetchTestConfigurations(Collection<Run> runs) {
-        Set<String> ids = getIdsNotIncludedInSet(runs, Run.FIELD_TEST_CONFIG_ID, testConfigurations.keySet());
+        Set<String> ids = getIds(runs, Run.FIELD_TEST_CONFIG_ID);
+        ids.removeAll(testConfigurations.getAll(ids).keySet());
         if (!ids.isEmpty()) {
             List<String> fields = Arrays.asList(TestConfiguration.FIELD_NAME);
             List<AlmEntity> myTestConfigs = almEntityService.getEntitiesByIds(TestConfiguration.COLLECTION_NAME, ids, fields);
             for (AlmEntity e : myTestConfigs) {
                 testConfigurations.put(e.getId(), (TestConfiguration) e);
             }
+            storeInPersistentCache(myTestConfigs);
         }
 
         return ids;
     }
 
     private List<AlmEntity> fetchTestSets(Collection<Run> runs) {
-        Set<String> ids = getIdsNotIncludedInSet(runs, Run.FIELD_TEST_SET_ID, testSets.keySet());
+        Set<String> ids = getIds(runs, Run.FIELD_TEST_SET_ID);
+        ids.removeAll(testSets.getAll(ids).keySet());
         List<AlmEntity> myTestSets = Collections.emptyList();
         if (!ids.isEmpty()) {
             List<String> fields = Arrays.asList(TestSet.FIELD_NAME);
@@ -205,7 +310,7 @@ public class AlmWrapperService {
             for (AlmEntity e : myTestSets) {
                 testSets.put(e.getId(), (TestSet) e);
             }
-
+            storeInPersistentCache(myTestSets);
         }
         return myTestSets;
     }
@@ -222,9 +327,23 @@ public class AlmWrapperService {
     }
 
     public List<Run> fetchRuns(AlmQueryBuilder queryBuilder) { // maxPages = -1 --> fetch all runs
+        return fetchRuns(queryBuilder, null);
+    }
+
+    /**
+     * Fetch page of runs ordered by id
+     *
+     * @param queryBuilder run filter with page size
+     * @param afterRunId   if not null, the page starts after this run id (keyset pagination),
+     *                     so the page cost doesn't depend on the page position and runs added during sync don't shift pages
+     */
+    public List<Run> fetchRuns(AlmQueryBuilder queryBuilder, String afterRunId) {
 
         List<Run> runs = new ArrayList<>();
         AlmQueryBuilder qb = queryBuilder.clone();
+        if (afterRunId != null) {
+            qb.addStartAfterId(afterRunId);
+        }
         qb.addOrderBy(Run.FIELD_ID);
         qb.addSelectedFields(
                 Run.FIELD_ID,
@@ -251,33 +370,57 @@ public class AlmWrapperService {
     }
 
     public void fetchRunRelatedEntities(List<Run> runs) {
-        //clear cache maps
-        clearMapIfSizeIsExceed(tests, 4000);
-        if (clearMapIfSizeIsExceed(testFolders, 3000)) {
-            tests.clear();
+        //fill caches, only test folders depend on tests, other lookups run concurrently
+        List<Future<?>> lookups = new ArrayList<>();
+        lookups.add(lookupExecutor.submit(Deadline.propagate(() -> fetchTestFolders(fetchTests(runs)))));
+        lookups.add(lookupExecutor.submit(Deadline.propagate(() -> fetchTestSets(runs))));
+        lookups.add(lookupExecutor.submit(Deadline.propagate(() -> fetchTestConfigurations(runs))));
+
+        try {
+            for (Future<?> lookup : lookups) {
+                Deadline.await(lookup);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while getting run related entities", e);
+        } catch (ExecutionException e) {
+            throw AlmEntityService.unwrap(e.getCause());
+        } finally {
+            for (Future<?> lookup : lookups) {
+                lookup.cancel(true);
+            }
         }
-        clearMapIfSizeIsExceed(testSets, 3000);
-        clearMapIfSizeIsExceed(testConfigurations, 4000);
+    }
 
-        //fill cache maps
-        List<AlmEntity> tests = fetchTests(runs);
-        fetchTestFolders(tests);
-        fetchTestSets(runs);
-        fetchTestConfigurations(runs);
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        almEntityService.setMaxConcurrentRequests(maxConcurrentRequests);
     }
 
-    private boolean clearMapIfSizeIsExceed(Map map, int maxSize) {
-        if (map.size() > maxSize) {
-            map.clear();
-            return true;
-        }
-        return false;
+    /**
+     * @param gzipResponses if true, ALM is allowed to send compressed responses
+     */
+    public void setGzipResponses(boolean gzipResponses) {
+        restConnector.setGzipResponses(gzipResponses);
     }
 
     public int getExpectedRuns(AlmQueryBuilder queryBuilder) {
         return almEntityService.getTotalNumber(Run.COLLECTION_NAME, queryBuilder);
     }
 
+    /**
+     * @param highest if true - highest run id is returned, otherwise lowest
+     * @return lowest or highest id of runs matching the filter, null if there are no such runs
+     */
+    public Long getRunIdBound(AlmQueryBuilder queryBuilder, boolean highest) {
+        AlmQueryBuilder qb = AlmQueryBuilder.create()
+                .addQueryConditions(queryBuilder.getQueryConditions())
+                .addSelectedFields(Run.FIELD_ID)
+                .addOrderBy(Run.FIELD_ID + (highest ? "[DESC]" : "[ASC]"))
+                .addPageSize(1);
+        List<AlmEntity> entities = almEntityService.getEntities(Run.COLLECTION_NAME, qb).getEntities();
+        return entities.isEmpty() ? null : Long.valueOf(entities.get(0).getId());
+    }
+
     public boolean login(String user, String password) {
         return almEntityService.login(user, password);
     }
@@ -0,0 +1,317 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.alm.services;
+
+import com.microfocus.mqm.atrf.alm.entities.Run;
+import com.microfocus.mqm.atrf.core.rest.CircuitBreaker;
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fetches runs of the filter from ALM by several workers, each worker fetches its own partition with its own id cursor.
+ * Runs are merged back in the order of partitions, and returned in pages, as if they were fetched by single cursor.
+ * Each worker prefetches limited number of pages, so memory doesn't depend on number of runs.
+ */
+public class PartitionedRunFetcher implements Closeable {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private static final int SUB_RANGES_PER_PARTITION = 4;
+    private static final int MAX_SPLIT_ROUNDS = 3;
+    private static final int PREFETCH_PAGES = 4;
+
+    private final AlmWrapperService almWrapper;
+    private final AlmQueryBuilder filter;
+    private final int pageSize;
+    private final ExecutorService workers;
+
+    private List<RunPartition> partitions;
+    private List<BlockingQueue<Page>> partitionPages;
+    private int currentPartition;
+    //fetched runs that are not returned yet, and index of partition of each run
+    private final LinkedList<Run> mergedRuns = new LinkedList<>();
+    private final LinkedList<Integer> mergedRunPartitions = new LinkedList<>();
+    private boolean splitPagesByPartition;
+    private int pagePartition = -1;
+
+    /**
+     * @param filter      run filter, with page size
+     * @param pageSize    number of runs in page
+     * @param workerCount number of partitions that are fetched at the same time
+     */
+    public PartitionedRunFetcher(AlmWrapperService almWrapper, AlmQueryBuilder filter, int pageSize, int workerCount) {
+        this.almWrapper = almWrapper;
+        this.filter = filter;
+        this.pageSize = pageSize;
+        this.workers = Executors.newFixedThreadPool(workerCount, new DaemonThreadFactory("alm-partition"));
+    }
+
+    /**
+     * Splits [lowest id, highest id] of the filter into id ranges with about the same number of runs.
+     * The range is split to equal sub ranges and runs of each sub range are counted,
+     * sub ranges with too many runs are split again, than adjacent sub ranges are joined to partitions.
+     *
+     * @return partitions ordered by id, empty list if there are no runs
+     */
+    public List<RunPartition> splitById(int partitionCount) {
+        Long lowestId = almWrapper.getRunIdBound(filter, false);
+        Long highestId = almWrapper.getRunIdBound(filter, true);
+        if (lowestId == null || highestId == null) {
+            return Collections.emptyList();
+        }
+
+        //COUNT SUB RANGES, sub range that holds more runs than partition should, is split again
+        RunPartition whole = new RunPartition("", lowestId, highestId);
+        whole.setExpectedRuns(almWrapper.getExpectedRuns(whole.applyTo(filter, null)));
+        int total = whole.getExpectedRuns();
+        int target = Math.max(1, total / partitionCount);
+        List<RunPartition> subRanges = Collections.singletonList(whole);
+        for (int round = 0; round < MAX_SPLIT_ROUNDS; round++) {
+            int pieces = round == 0 ? partitionCount * SUB_RANGES_PER_PARTITION : SUB_RANGES_PER_PARTITION;
+            List<RunPartition> nextSubRanges = new ArrayList<>();
+            boolean split = false;
+            for (RunPartition subRange : subRanges) {
+                if (subRange.getExpectedRuns() > target && subRange.getHighestId() > subRange.getLowestId()) {
+                    nextSubRanges.addAll(countSubRanges(subRange, pieces));
+                    split = true;
+                } else {
+                    nextSubRanges.add(subRange);
+                }
+            }
+            subRanges = nextSubRanges;
+            if (!split) {
+                break;
+            }
+        }
+
+        //JOIN SUB RANGES
+        List<RunPartition> result = new ArrayList<>();
+        Long from = null;
+        int count = 0;
+        for (int i = 0; i < subRanges.size(); i++) {
+            RunPartition subRange = subRanges.get(i);
+            if (from == null) {
+                from = subRange.getLowestId();
+            }
+            count += subRange.getExpectedRuns();
+            boolean last = i == subRanges.size() - 1;
+            if ((count >= target && result.size() < partitionCount - 1) || last) {
+                if (count > 0) {
+                    RunPartition partition = new RunPartition(String.format("ids %s-%s", from, subRange.getHighestId()), from, subRange.getHighestId());
+                    partition.setExpectedRuns(count);
+                    result.add(partition);
+                }
+                from = null;
+                count = 0;
+            }
+        }
+        logger.info(String.format("Runs are split to %s partitions : %s", result.size(), result));
+        return result;
+    }
+
+    /**
+     * Splits the range from start date till today into date windows of execution date. Last window is not bounded.
+     *
+     * @param startFromDate first date, in yyyy-MM-dd format
+     * @param windowDays    number of days in window
+     * @return windows ordered by date, named as 'start/end', end date is not included
+     */
+    public static List<RunPartition> splitByDate(String startFromDate, int windowDays) {
+        List<RunPartition> windows = new ArrayList<>();
+        LocalDate today = LocalDate.now();
+        for (LocalDate from = LocalDate.parse(startFromDate); !from.isAfter(today); from = from.plusDays(windowDays)) {
+            LocalDate to = from.plusDays(windowDays);
+            boolean last = to.isAfter(today);
+            String condition = ">=" + from + (last ? "" : " AND <" + to);
+            windows.add(new RunPartition(from + "/" + (last ? "" : to), null, null).addQueryCondition(Run.FIELD_DATE, condition));
+        }
+        return windows;
+    }
+
+    /**
+     * Counts runs of each partition, counts are done concurrently
+     */
+    public void countRuns(List<RunPartition> partitions) {
+        List<Future<Integer>> counts = new ArrayList<>();
+        for (RunPartition partition : partitions) {
+            counts.add(workers.submit(() -> almWrapper.getExpectedRuns(partition.applyTo(filter, null))));
+        }
+        for (int i = 0; i < partitions.size(); i++) {
+            partitions.get(i).setExpectedRuns(getResult(counts.get(i)));
+        }
+    }
+
+    /**
+     * @param splitPagesByPartition if true, each page holds runs of single partition, so last page of partition might be not full
+     */
+    public void setSplitPagesByPartition(boolean splitPagesByPartition) {
+        this.splitPagesByPartition = splitPagesByPartition;
+    }
+
+    /**
+     * Starts fetching of the partitions, partitions should not overlap and be ordered by run id
+     */
+    public void start(List<RunPartition> partitions) {
+        this.partitions = partitions;
+        partitionPages = new ArrayList<>();
+        for (RunPartition partition : partitions) {
+            BlockingQueue<Page> pages = new ArrayBlockingQueue<>(PREFETCH_PAGES);
+            partitionPages.add(pages);
+            workers.submit(() -> fetchPartition(partition, pages));
+        }
+    }
+
+    /**
+     * @return next page of runs in the order of partitions, empty list if all partitions are fetched
+     */
+    public List<Run> fetchRuns() throws InterruptedException {
+        while (currentPartition < partitions.size() && !hasFullPage()) {
+            readPage();
+        }
+
+        List<Run> runs = new ArrayList<>();
+        pagePartition = mergedRunPartitions.isEmpty() ? -1 : mergedRunPartitions.getFirst();
+        while (runs.size() < pageSize && !mergedRuns.isEmpty()) {
+            if (splitPagesByPartition && mergedRunPartitions.getFirst() != pagePartition) {
+                break;
+            }
+            runs.add(mergedRuns.removeFirst());
+            mergedRunPartitions.removeFirst();
+        }
+
+        //page took all fetched runs of its partition, next page is read to know if the partition is completed
+        while (splitPagesByPartition && pagePartition == currentPartition && mergedRuns.isEmpty()) {
+            readPage();
+        }
+        return runs;
+    }
+
+    private void readPage() throws InterruptedException {
+        Page page = partitionPages.get(currentPartition).take();
+        if (page.error != null) {
+            throw page.error;
+        }
+        for (Run run : page.runs) {
+            mergedRuns.add(run);
+            mergedRunPartitions.add(currentPartition);
+        }
+        if (page.last) {
+            logger.info(String.format("Partition %s is fetched", partitions.get(currentPartition).getName()));
+            currentPartition++;
+        }
+    }
+
+    /**
+     * @return partition of the last returned page, if pages are split by partition
+     */
+    public RunPartition getPagePartition() {
+        return pagePartition < 0 ? null : partitions.get(pagePartition);
+    }
+
+    /**
+     * @return true if the last returned page is the last page of its partition, if pages are split by partition
+     */
+    public boolean isPagePartitionFetched() {
+        return pagePartition >= 0 && pagePartition < currentPartition && (mergedRunPartitions.isEmpty() || mergedRunPartitions.getFirst() != pagePartition);
+    }
+
+    private boolean hasFullPage() {
+        if (mergedRuns.size() >= pageSize) {
+            return true;
+        }
+        //the first partition in merged runs is completed, its last page can be returned
+        return splitPagesByPartition && !mergedRuns.isEmpty() && mergedRunPartitions.getFirst() < currentPartition;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private void fetchPartition(RunPartition partition, BlockingQueue<Page> pages) {
+        try {
+            String lastFetchedRunId = null;
+            boolean last = false;
+            while (!last) {
+                List<Run> runs;
+                AlmQueryBuilder pageFilter = partition.applyTo(filter, lastFetchedRunId);
+                try {
+                    runs = CircuitBreaker.pauseWhileOpen(() -> almWrapper.fetchRuns(pageFilter, null));
+                } catch (RuntimeException e) {
+                    pages.put(new Page(Collections.emptyList(), true, e));
+                    return;
+                }
+                last = runs.size() < pageSize;
+                if (!runs.isEmpty()) {
+                    lastFetchedRunId = runs.get(runs.size() - 1).getId();
+                }
+                pages.put(new Page(runs, last, null));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Splits the range to equal sub ranges and counts runs of each one
+     */
+    private List<RunPartition> countSubRanges(RunPartition range, int subRangeCount) {
+        long width = range.getHighestId() - range.getLowestId() + 1;
+        subRangeCount = (int) Math.min(subRangeCount, width);
+        long subRangeWidth = width / subRangeCount;
+        List<RunPartition> subRanges = new ArrayList<>();
+        for (int i = 0; i < subRangeCount; i++) {
+            long from = range.getLowestId() + i * subRangeWidth;
+            long to = (i == subRangeCount - 1) ? range.getHighestId() : from + subRangeWidth - 1;
+            subRanges.add(new RunPartition("", from, to));
+        }
+
+        countRuns(subRanges);
+        return subRanges;
+    }
+
+    private static int getResult(Future<Integer> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while counting runs of partitions", e);
+        } catch (ExecutionException e) {
+            throw AlmEntityService.unwrap(e.getCause());
+        }
+    }
+
+    private static class Page {
+        private final List<Run> runs;
+        private final boolean last;
+        private final RuntimeException error;
+
+        Page(List<Run> runs, boolean last, RuntimeException error) {
+            this.runs = runs;
+            this.last = last;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.alm.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microfocus.mqm.atrf.alm.core.AlmEntity;
+import com.microfocus.mqm.atrf.core.cache.BoundedCache;
+import org.apache.commons.lang.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Keeps reference entities (tests, test folders, test sets, test configurations) between invocations of the tool,
+ * in append-only file of json lines per ALM server, domain and project.
+ * <p>
+ * On load, for each type the file holds validation mark : the latest 'last-modified' of the type in ALM, when it was loaded last time.
+ * Stored entities that were modified in ALM since this mark or deleted from ALM are dropped, so only changed entities are fetched from ALM again.
+ * If the validation fails, all stored entities of the type are dropped.
+ * <p>
+ * The file is compacted on load, and when more entities are appended than memory caches can hold.
+ */
+public class PersistentReferenceCache {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final String DIR_DEFAULT = "logs/cache";
+
+    private static final String FIELD_LAST_MODIFIED = "last-modified";
+    private static final String RECORD_TYPE = "type";
+    private static final String RECORD_FIELDS = "fields";
+    private static final String RECORD_VALIDATED_AT = "validatedAt";
+    //names of fields with json null value, other null fields have no value
+    private static final String RECORD_NULL_FIELDS = "nullFields";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Path filePath;
+    private final AlmEntityService almEntityService;
+    private final Map<String, Registration> registrations = new LinkedHashMap<>();
+    private BufferedWriter writer;
+    private boolean writable = true;
+    private Map<String, String> marks = new HashMap<>();
+    private int appendedCount;
+
+    public PersistentReferenceCache(String dir, AlmEntityService almEntityService) {
+        this.almEntityService = almEntityService;
+
+        String almHost = "ALM";
+        try {
+            almHost = new URI(almEntityService.restConnector.getBaseUrl()).getHost();
+        } catch (URISyntaxException e) {
+            //use default
+        }
+        String splitter = "_";
+        String fileName = "referenceCache" + splitter + almHost + splitter + almEntityService.getDomain() + splitter + almEntityService.getProject() + ".json";
+        filePath = Paths.get(dir, fileName);
+    }
+
+    /**
+     * @param type           of the entity
+     * @param collectionName used to validate stored entities of the type in ALM
+     * @param cache          memory cache, that is filled by stored entities
+     */
+    public void register(String type, String collectionName, BoundedCache<String, ? extends AlmEntity> cache) {
+        registrations.put(type, new Registration(collectionName, cache));
+    }
+
+    /**
+     * Reads stored entities, drops entities that are modified in ALM, rewrites the file with valid entities only
+     * and fills the memory caches
+     */
+    public void load() {
+        Map<String, LinkedHashMap<String, AlmEntity>> storedEntities = new HashMap<>();
+        Map<String, String> storedMarks = new HashMap<>();
+        for (String type : registrations.keySet()) {
+            storedEntities.put(type, new LinkedHashMap<>());
+        }
+
+        readFile(storedEntities, storedMarks);
+
+        Map<String, String> newMarks = new HashMap<>();
+        for (Map.Entry<String, Registration> entry : registrations.entrySet()) {
+            String type = entry.getKey();
+            LinkedHashMap<String, AlmEntity> entities = storedEntities.get(type);
+            int storedCount = entities.size();
+            try {
+                String newMark = getLastModified(entry.getValue().collectionName);
+                if (newMark != null) {
+                    newMarks.put(type, newMark);
+                }
+
+                String storedMark = storedMarks.get(type);
+                if (storedMark == null) {
+                    entities.clear();
+                } else if (!entities.isEmpty()) {
+                    entities.keySet().removeAll(getModifiedIds(entry.getValue().collectionName, storedMark));
+                }
+            } catch (Exception e) {
+                logger.warn(String.format("Reference cache %s : failed to validate stored entities, they are dropped : %s", type, e.getMessage()));
+                newMarks.remove(type);
+                entities.clear();
+            }
+
+            //keep the latest stored entities, as many as fit memory cache
+            int capacity = entry.getValue().cache.getCapacity();
+            Iterator<String> it = entities.keySet().iterator();
+            for (int i = entities.size(); i > capacity; i--) {
+                it.next();
+                it.remove();
+            }
+
+            try {
+                if (!entities.isEmpty()) {
+                    entities.keySet().retainAll(getExistingIds(entry.getValue().collectionName, entities.keySet()));
+                }
+            } catch (Exception e) {
+                logger.warn(String.format("Reference cache %s : failed to check deleted entities, stored entities are dropped : %s", type, e.getMessage()));
+                newMarks.remove(type);
+                entities.clear();
+            }
+
+            for (AlmEntity entity : entities.values()) {
+                entry.getValue().put(entity);
+            }
+            logger.info(String.format("Reference cache %s : %s stored entities, %s are valid", type, storedCount, entities.size()));
+        }
+
+        marks = newMarks;
+        rewriteFile(storedEntities);
+    }
+
+    /**
+     * Appends fetched entities to the file
+     */
+    public synchronized void store(Collection<? extends AlmEntity> entities) {
+        if (!writable || entities.isEmpty()) {
+            return;
+        }
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(filePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            for (AlmEntity entity : entities) {
+                writeEntity(writer, entity);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            logger.error(String.format("Failed to write reference cache to %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            writable = false;
+        }
+
+        appendedCount += entities.size();
+        if (appendedCount > getTotalCapacity()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with entities of memory caches, so in daemon mode the file does not grow without limit
+     */
+    private void compact() {
+        close();
+        Map<String, LinkedHashMap<String, AlmEntity>> cachedEntities = new HashMap<>();
+        for (Map.Entry<String, Registration> entry : registrations.entrySet()) {
+            LinkedHashMap<String, AlmEntity> entities = new LinkedHashMap<>();
+            for (AlmEntity entity : entry.getValue().cache.values()) {
+                entities.put(entity.getId(), entity);
+            }
+            cachedEntities.put(entry.getKey(), entities);
+        }
+        rewriteFile(cachedEntities);
+        logger.info(String.format("Reference cache %s is compacted", filePath.toFile().getAbsolutePath()));
+    }
+
+    private int getTotalCapacity() {
+        int capacity = 0;
+        for (Registration registration : registrations.values()) {
+            capacity += registration.cache.getCapacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * Closes the file, entities stored later are appended by new writer
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.error(String.format("Failed to close reference cache %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            }
+            writer = null;
+        }
+    }
+
+    private String getLastModified(String collectionName) {
+        AlmQueryBuilder qb = AlmQueryBuilder.create().addSelectedFields(FIELD_LAST_MODIFIED).addOrderBy(FIELD_LAST_MODIFIED + "[DESC]").addPageSize(1);
+        List<AlmEntity> entities = almEntityService.getEntities(collectionName, qb).getEntities();
+        return entities.isEmpty() ? null : entities.get(0).getString(FIELD_LAST_MODIFIED);
+    }
+
+    private Set<String> getModifiedIds(String collectionName, String lastModified) {
+        AlmQueryBuilder qb = AlmQueryBuilder.create().addQueryCondition(FIELD_LAST_MODIFIED, ">='" + lastModified + "'").addSelectedFields(AlmEntity.FIELD_ID);
+        Set<String> ids = new HashSet<>();
+        for (AlmEntity entity : almEntityService.getAllPagedEntities(collectionName, qb)) {
+            ids.add(entity.getId());
+        }
+        return ids;
+    }
+
+    private Set<String> getExistingIds(String collectionName, Set<String> ids) {
+        Set<String> existingIds = new HashSet<>();
+        for (AlmEntity entity : almEntityService.getEntitiesByIds(collectionName, ids, Collections.singletonList(AlmEntity.FIELD_ID))) {
+            existingIds.add(entity.getId());
+        }
+        return existingIds;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readFile(Map<String, LinkedHashMap<String, AlmEntity>> storedEntities, Map<String, String> storedMarks) {
+        if (!Files.exists(filePath)) {
+            return;
+        }
+
+        int invalidLines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    Map<String, Object> record = objectMapper.readValue(line, Map.class);
+                    String type = (String) record.get(RECORD_TYPE);
+                    LinkedHashMap<String, AlmEntity> entities = storedEntities.get(type);
+                    if (entities == null) {
+                        continue;
+                    }
+                    if (record.containsKey(RECORD_VALIDATED_AT)) {
+                        storedMarks.put(type, (String) record.get(RECORD_VALIDATED_AT));
+                    } else {
+                        AlmEntity entity = almEntityService.createEntity(type);
+                        entity.getFields().putAll((Map<String, Object>) record.get(RECORD_FIELDS));
+                        List<String> nullFields = (List<String>) record.get(RECORD_NULL_FIELDS);
+                        if (nullFields != null) {
+                            for (String nullField : nullFields) {
+                                entity.put(nullField, JSONObject.NULL);
+                            }
+                        }
+                        //entity that is stored again is moved to the end, as the latest one
+                        entities.remove(entity.getId());
+                        entities.put(entity.getId(), entity);
+                    }
+                } catch (Exception e) {
+                    //for example, last line is not completed because the tool was stopped
+                    invalidLines++;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn(String.format("Failed to read reference cache from %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            storedMarks.clear();
+        }
+        if (invalidLines > 0) {
+            logger.warn(String.format("Reference cache %s : %s invalid lines are skipped", filePath.toFile().getAbsolutePath(), invalidLines));
+        }
+    }
+
+    private void rewriteFile(Map<String, LinkedHashMap<String, AlmEntity>> storedEntities) {
+        Path tempPath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(filePath.toAbsolutePath().getParent());
+            try (BufferedWriter tempWriter = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> mark : marks.entrySet()) {
+                    Map<String, Object> record = new LinkedHashMap<>();
+                    record.put(RECORD_TYPE, mark.getKey());
+                    record.put(RECORD_VALIDATED_AT, mark.getValue());
+                    tempWriter.write(objectMapper.writeValueAsString(record));
+                    tempWriter.newLine();
+                }
+                for (Map.Entry<String, LinkedHashMap<String, AlmEntity>> entry : storedEntities.entrySet()) {
+                    for (AlmEntity entity : entry.getValue().values()) {
+                        writeEntity(tempWriter, entity);
+                    }
+                }
+            }
+            try {
+                Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            appendedCount = 0;
+        } catch (IOException e) {
+            logger.error(String.format("Failed to write reference cache to %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            writable = false;
+        }
+    }
+
+    private static void writeEntity(BufferedWriter writer, AlmEntity entity) throws IOException {
+        if (StringUtils.isEmpty(entity.getId())) {
+            return;
+        }
+        Map<String, Object> fields = new HashMap<>();
+        List<String> nullFields = new ArrayList<>();
+        for (Map.Entry<String, Object> field : entity.getFields().entrySet()) {
+            if (field.getValue() == JSONObject.NULL) {
+                nullFields.add(field.getKey());
+                fields.put(field.getKey(), null);
+            } else {
+                fields.put(field.getKey(), field.getValue());
+            }
+        }
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put(RECORD_TYPE, entity.getType());
+        record.put(RECORD_FIELDS, fields);
+        if (!nullFields.isEmpty()) {
+            record.put(RECORD_NULL_FIELDS, nullFields);
+        }
+        writer.write(objectMapper.writeValueAsString(record));
+        writer.newLine();
+    }
+
+    private static class Registration {
+        private final String collectionName;
+        private final BoundedCache<String, ? extends AlmEntity> cache;
+
+        Registration(String collectionName, BoundedCache<String, ? extends AlmEntity> cache) {
+            this.collectionName = collectionName;
+            this.cache = cache;
+        }
+
+        @SuppressWarnings("unchecked")
+        void put(AlmEntity entity) {
+            ((BoundedCache<String, AlmEntity>) cache).put(entity.getId(), entity);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.alm.services;
+
+import com.microfocus.mqm.atrf.alm.core.AlmEntity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Part of the run filter, that is fetched independently of other parts, with its own id cursor.
+ * Partition is defined by id range and/or additional query conditions.
+ */
+public class RunPartition {
+
+    private final String name;
+    private final Long lowestId;
+    private final Long highestId;
+    private final Map<String, String> conditions = new HashMap<>();
+    private int expectedRuns;
+
+    /**
+     * @param lowestId  lowest run id, inclusive, null if not bounded
+     * @param highestId highest run id, inclusive, null if not bounded
+     */
+    public RunPartition(String name, Long lowestId, Long highestId) {
+        this.name = name;
+        this.lowestId = lowestId;
+        this.highestId = highestId;
+    }
+
+    public RunPartition addQueryCondition(String field, String value) {
+        conditions.put(field, value);
+        return this;
+    }
+
+    /**
+     * @param filter     run filter
+     * @param afterRunId if not null, runs after this id are fetched
+     * @return copy of the filter, restricted to the partition
+     */
+    public AlmQueryBuilder applyTo(AlmQueryBuilder filter, String afterRunId) {
+        AlmQueryBuilder qb = filter.clone();
+        qb.addQueryConditions(conditions);
+
+        String idCondition = null;
+        if (afterRunId != null) {
+            idCondition = ">" + afterRunId;
+        } else if (lowestId != null) {
+            idCondition = ">=" + lowestId;
+        }
+        if (highestId != null) {
+            idCondition = (idCondition == null ? "" : idCondition + " AND ") + "<=" + highestId;
+        }
+        if (idCondition != null) {
+            //replaces id condition of the filter, partition bounds are inside of it
+            qb.addQueryCondition(AlmEntity.FIELD_ID, idCondition);
+        }
+        return qb;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Long getLowestId() {
+        return lowestId;
+    }
+
+    public Long getHighestId() {
+        return highestId;
+    }
+
+    public int getExpectedRuns() {
+        return expectedRuns;
+    }
+
+    public void setExpectedRuns(int expectedRuns) {
+        this.expectedRuns = expectedRuns;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s runs)", name, expectedRuns);
+    }
+}
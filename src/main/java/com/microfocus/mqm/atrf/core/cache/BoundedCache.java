@@ -0,0 +1,119 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.cache;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Thread safe cache with limited number of entries. When the cache is full, the least recently used entry is evicted.
+ * Keeps statistics of hits, misses and evictions, hits and misses are counted by getAll, that is used to decide what should be fetched.
+ */
+public class BoundedCache<K, V> {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private final String name;
+    private final int capacity;
+    private final LinkedHashMap<K, V> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BoundedCache(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+        //access order : each get moves the entry to the end, so the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > BoundedCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * Gets cached entries of the keys. Entries that are found are marked as recently used,
+     * so they are not evicted before entries that were not used recently.
+     *
+     * @return found entries, keys that are not in the result are missing in the cache
+     */
+    public synchronized Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> found = new HashMap<>();
+        for (K key : keys) {
+            V value = entries.get(key);
+            if (value == null) {
+                misses++;
+            } else {
+                hits++;
+                found.put(key, value);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return copy of cached values, from the least to the most recently used, usage is not updated
+     */
+    public synchronized List<V> values() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized void logStatistics() {
+        long requests = hits + misses;
+        long hitRatio = requests == 0 ? 0 : Math.round(hits * 100.0 / requests);
+        logger.info(String.format("Cache %s : size %s/%s, hits %s, misses %s (hit ratio %s%%), evictions %s",
+                name, entries.size(), capacity, hits, misses, hitRatio, evictions));
+    }
+}
@@ -17,7 +17,10 @@
 
 package com.microfocus.mqm.atrf.core.configuration;
 
+import com.microfocus.mqm.atrf.core.rest.CircuitBreaker;
+import com.microfocus.mqm.atrf.core.rest.HttpConnectionPool;
 import com.microfocus.mqm.atrf.core.rest.RestConnector;
+import com.microfocus.mqm.atrf.core.rest.RetryPolicy;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
@@ -68,6 +71,8 @@ public class CliParser {
     public static final String RUN_FILTER_DATE_OPTION_LONG = "run-filter-date";
     public static final String RUN_FILTER_LIMIT_OPTION = "rfl";
     public static final String RUN_FILTER_LIMIT_OPTION_LONG = "run-filter-limit";
+    public static final String DAEMON_OPTION = "d";
+    public static final String DAEMON_OPTION_LONG = "daemon";
 
     private Options options = new Options();
     private LinkedList<String> argsWithSingleOccurrence = new LinkedList<>();
@@ -98,6 +103,9 @@ public class CliParser {
 
         options.addOption(Option.builder(RUN_FILTER_LIMIT_OPTION).longOpt(RUN_FILTER_LIMIT_OPTION_LONG).desc("Limit number of ALM runs to retrieve ").hasArg().argName("NUMBER").build());
 
+        options.addOption(Option.builder(DAEMON_OPTION).longOpt(DAEMON_OPTION_LONG).desc("Keep running and send runs created after last sent run by schedule, defined in <daemon> section of configuration file." + System.lineSeparator() +
+                "Login sessions, caches and connections are kept between sync cycles").build());
+
         argsWithSingleOccurrence.addAll(Arrays.asList(OUTPUT_FILE_OPTION, CONFIG_FILE_OPTION, PASSWORD_ALM_OPTION, PASSWORD_ALM_FILE_OPTION, PASSWORD_OCTANE_OPTION,
                 PASSWORD_OCTANE_FILE_OPTION, RUN_FILTER_ID_OPTION, RUN_FILTER_DATE_OPTION, RUN_FILTER_LIMIT_OPTION));
 
@@ -210,6 +218,9 @@ public class CliParser {
             if (cmd.hasOption(RUN_FILTER_LIMIT_OPTION)) {
                 configuration.setRunFilterFetchLimit(cmd.getOptionValue(RUN_FILTER_LIMIT_OPTION));
             }
+            if (cmd.hasOption(DAEMON_OPTION)) {
+                configuration.setDaemonEnabled(true);
+            }
 
             try {
                 configuration.validateProperties();
@@ -219,6 +230,9 @@ public class CliParser {
             }
 
             initProxyIfDefined(configuration);
+            initConnectionPool(configuration);
+            initRetryPolicy(configuration);
+            initCircuitBreakers(configuration);
             configuration.logProperties();
 
         } catch (Exception e) {
@@ -291,6 +305,33 @@ public class CliParser {
         }
     }
 
+    private void initConnectionPool(FetchConfiguration configuration) {
+        HttpConnectionPool.configure(
+                Integer.parseInt(configuration.getHttpMaxConnections()),
+                Integer.parseInt(configuration.getHttpMaxConnectionsPerRoute()),
+                Integer.parseInt(configuration.getHttpIdleConnectionTimeout()),
+                Integer.parseInt(configuration.getHttpKeepAlive()));
+        RestConnector.setTimeouts(
+                Integer.parseInt(configuration.getHttpConnectTimeout()),
+                Integer.parseInt(configuration.getHttpReadTimeout()));
+    }
+
+    private void initRetryPolicy(FetchConfiguration configuration) {
+        RetryPolicy.configure(
+                Integer.parseInt(configuration.getHttpRetryMaxAttempts()),
+                Integer.parseInt(configuration.getHttpRetryBaseDelay()),
+                Integer.parseInt(configuration.getHttpRetryMaxDelay()),
+                Integer.parseInt(configuration.getHttpRetryBudget()),
+                configuration.getHttpRetryStatuses(),
+                configuration.getHttpRetryPostStatuses());
+    }
+
+    private void initCircuitBreakers(FetchConfiguration configuration) {
+        CircuitBreaker.configure(
+                Integer.parseInt(configuration.getHttpCircuitBreakerFailureThreshold()),
+                Integer.parseInt(configuration.getHttpCircuitBreakerCooldown()),
+                Integer.parseInt(configuration.getHttpCircuitBreakerMaxPause()));
+    }
 
     public void handleHelpAndVersionOptions(String[] args) {
 
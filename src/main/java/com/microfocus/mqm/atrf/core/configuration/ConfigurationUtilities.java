@@ -26,89 +26,112 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Created by berkovir on 20/12/2016.
  */
 public class ConfigurationUtilities {
 
-    private static boolean writeToLastSentRun = true;
-
-    private static String lastSentFilePath;
-    private static FetchConfiguration fetchConfiguration;
     static final Logger logger = LogManager.getLogger();
 
 
-    public static void setConfiguration(FetchConfiguration conf) {
-        fetchConfiguration = conf;
+    private static String getLastSentFilePath(FetchConfiguration configuration) {
+        return buildStateFilePath(configuration, "logs/lastSent");
     }
 
+    /**
+     * @return path of the journal of sent bulks, that holds last sent run id
+     */
+    public static String getJournalFilePath(FetchConfiguration configuration) {
+        return buildStateFilePath(configuration, "logs/journal");
+    }
 
-    private static String getLastSentFilePath() {
+    /**
+     * @return path of the file, that holds completed windows of date window backfill
+     */
+    public static String getBackfillStateFilePath(FetchConfiguration configuration) {
+        return buildStateFilePath(configuration, "logs/backfill");
+    }
 
-        if (lastSentFilePath == null) {
+    /**
+     * @return path of the file, that holds runs that are rejected by ALM Octane
+     */
+    public static String getQuarantineFilePath(FetchConfiguration configuration) {
+        return buildStateFilePath(configuration, "logs/quarantine");
+    }
 
-            String almHost = "ALM", octaneHost = "OCTANE";
-            try {
-                URI uri = new URI(fetchConfiguration.getAlmServerUrl());
-                almHost = uri.getHost();
+    /**
+     * @return directory of spooled bulks of ALM project and ALM Octane workspace
+     */
+    public static String getSpoolDirPath(FetchConfiguration configuration) {
+        return Paths.get(configuration.getSyncSpoolDir(), buildStateName(configuration, "spool")).toString();
+    }
 
-                uri = new URI(fetchConfiguration.getOctaneServerUrl());
-                octaneHost = uri.getHost();
-            } catch (URISyntaxException e) {
+    private static String buildStateFilePath(FetchConfiguration configuration, String prefix) {
+        return buildStateName(configuration, prefix) + ".txt";
+    }
 
-            }
+    /**
+     * State file is specific to ALM project and ALM Octane workspace
+     */
+    private static String buildStateName(FetchConfiguration configuration, String prefix) {
+        String almHost = "ALM", octaneHost = "OCTANE";
+        try {
+            URI uri = new URI(configuration.getAlmServerUrl());
+            almHost = uri.getHost();
+
+            uri = new URI(configuration.getOctaneServerUrl());
+            octaneHost = uri.getHost();
+        } catch (URISyntaxException e) {
 
-            String splitter = "_";
-            StringBuilder sb = new StringBuilder("logs/lastSent").append(splitter);
-            sb.append(almHost).append(splitter);
-            sb.append(fetchConfiguration.getAlmDomain()).append(splitter);
-            sb.append(fetchConfiguration.getAlmProject()).append(splitter);
-            sb.append(octaneHost).append(splitter);
-            sb.append(fetchConfiguration.getOctaneSharedSpaceId()).append(splitter);
-            sb.append(fetchConfiguration.getOctaneWorkspaceId());
-            sb.append(".txt");
-            lastSentFilePath = sb.toString();
         }
-        return lastSentFilePath;
+
+        String splitter = "_";
+        StringBuilder sb = new StringBuilder(prefix).append(splitter);
+        sb.append(almHost).append(splitter);
+        sb.append(configuration.getAlmDomain()).append(splitter);
+        sb.append(configuration.getAlmProject()).append(splitter);
+        sb.append(octaneHost).append(splitter);
+        sb.append(configuration.getOctaneSharedSpaceId()).append(splitter);
+        sb.append(configuration.getOctaneWorkspaceId());
+        return sb.toString();
     }
 
-    public static String readLastSentRunId() {
-        String value = null;
-        Path path = Paths.get(getLastSentFilePath());
+    /**
+     * Last sent run id was kept in lastSent file by previous versions, now it is kept in the journal.
+     * The file is renamed after the value is committed to the journal, so it is not migrated again if the journal is deleted
+     */
+    public static void markLastSentRunIdMigrated(FetchConfiguration configuration) {
+        Path path = Paths.get(getLastSentFilePath(configuration));
         if (Files.exists(path)) {
             try {
-                value = new String(Files.readAllBytes(path)).trim();
-                int intValue = Integer.parseInt(value);
-
+                Files.move(path, Paths.get(path.toString() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
             } catch (IOException e) {
-                logger.error(String.format("Failed to read LastSentRunId from %s : %s", path.toFile().getAbsolutePath()), e.getMessage());
-            } catch (NumberFormatException e) {
-                logger.error(String.format("Failed to parse content of LastSentRunId from %s : %s", path.toFile().getAbsolutePath()), e.getMessage());
+                logger.error(String.format("Failed to rename %s : %s", path.toFile().getAbsolutePath(), e.getMessage()));
             }
         }
-
-        return value;
     }
 
-    public static void saveLastSentRunId(String lastSentId) {
-
-        if (writeToLastSentRun) {
-            Path path = Paths.get(getLastSentFilePath());
+    /**
+     * @return last sent run id from lastSent file of previous versions, null if file does not exist
+     */
+    public static String readLastSentRunId(FetchConfiguration configuration) {
+        String value = null;
+        Path path = Paths.get(getLastSentFilePath(configuration));
+        if (Files.exists(path)) {
             try {
-                if (!Files.exists(path)) {
-                    Files.createFile(path);
-                }
-                Files.write(path, lastSentId.getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+                value = new String(Files.readAllBytes(path)).trim();
+                int intValue = Integer.parseInt(value);
 
             } catch (IOException e) {
-                logger.error(String.format("Failed to write LAST_SENT_ID to %s", path.toFile().getAbsolutePath()));
-                writeToLastSentRun = false;
-            } catch (Exception e) {
-                logger.error(String.format("Exception occurred during writing LAST_SENT_ID to %s : %s", path.toFile().getAbsolutePath()), e.getMessage());
-                writeToLastSentRun = false;
+                logger.error(String.format("Failed to read LastSentRunId from %s : %s", path.toFile().getAbsolutePath(), e.getMessage()));
+            } catch (NumberFormatException e) {
+                logger.error(String.format("Failed to parse content of LastSentRunId from %s : %s", path.toFile().getAbsolutePath(), e.getMessage()));
+                value = null;
             }
         }
+
+        return value;
     }
 }
@@ -17,6 +17,16 @@
 
 package com.microfocus.mqm.atrf.core.configuration;
 
+import com.microfocus.mqm.atrf.alm.services.AlmEntityService;
+import com.microfocus.mqm.atrf.alm.services.AlmWrapperService;
+import com.microfocus.mqm.atrf.alm.services.PersistentReferenceCache;
+import com.microfocus.mqm.atrf.core.rest.CircuitBreaker;
+import com.microfocus.mqm.atrf.core.rest.HttpConnectionPool;
+import com.microfocus.mqm.atrf.core.rest.RestConnector;
+import com.microfocus.mqm.atrf.core.rest.RetryPolicy;
+import com.microfocus.mqm.atrf.core.sync.AdaptiveSendController;
+import com.microfocus.mqm.atrf.core.sync.BulkSpool;
+import com.microfocus.mqm.atrf.core.sync.SyncSchedule;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -56,6 +66,21 @@ public class FetchConfiguration {
     public static String OCTANE_WORKSPACE_ID_PARAM = "conf.octane.workspaceId";
 
 
+    public static String ALM_MAX_CONCURRENT_REQUESTS_PARAM = "conf.alm.maxConcurrentRequests";
+    public static String ALM_RUN_FILTER_BACKFILL_WINDOW_PARAM = "conf.alm.runFilter.backfillWindow";
+    public static String ALM_FETCH_PARTITIONS_PARAM = "conf.alm.fetchPartitions";
+    public static String ALM_GZIP_RESPONSES_PARAM = "conf.alm.gzipResponses";
+    public static String ALM_REFERENCE_CACHE_SIZE_PARAM = "conf.alm.referenceCache.size";
+    public static String ALM_REFERENCE_CACHE_PERSISTENT_PARAM = "conf.alm.referenceCache.persistent";
+    public static String ALM_REFERENCE_CACHE_DIR_PARAM = "conf.alm.referenceCache.dir";
+    public static String OCTANE_GZIP_UPLOADS_PARAM = "conf.octane.gzipUploads";
+    public static String ALM_RATE_LIMIT_READ_PARAM = "conf.alm.rateLimit.read";
+    public static String ALM_RATE_LIMIT_WRITE_PARAM = "conf.alm.rateLimit.write";
+    public static String OCTANE_RATE_LIMIT_READ_PARAM = "conf.octane.rateLimit.read";
+    public static String OCTANE_RATE_LIMIT_WRITE_PARAM = "conf.octane.rateLimit.write";
+    public static String ALM_SESSION_TTL_PARAM = "conf.alm.sessionTtl";
+    public static String OCTANE_SESSION_TTL_PARAM = "conf.octane.sessionTtl";
+
     public static String ALM_RUN_FILTER_START_FROM_ID_PARAM = "conf.alm.runFilter.startFromId";
     public static String ALM_RUN_FILTER_START_FROM_DATE_PARAM = "conf.alm.runFilter.startFromDate";
     public static String ALM_RUN_FILTER_TEST_TYPE_PARAM = "conf.alm.runFilter.testType";
@@ -67,6 +92,35 @@ public class FetchConfiguration {
 
     public static String SYNC_BULK_SIZE_PARAM = "conf.sync.bulkSize";
     public static String SYNC_SLEEP_BETWEEN_POSTS_PARAM = "conf.sync.sleepBetweenPosts";
+    public static String SYNC_MAX_BULKS_IN_FLIGHT_PARAM = "conf.sync.maxBulksInFlight";
+    public static String SYNC_ADAPTIVE_THROTTLING_ENABLED_PARAM = "conf.sync.adaptiveThrottling.enabled";
+    public static String SYNC_ADAPTIVE_THROTTLING_MAX_JOBS_IN_FLIGHT_PARAM = "conf.sync.adaptiveThrottling.maxJobsInFlight";
+    public static String SYNC_SPOOL_ENABLED_PARAM = "conf.sync.spool.enabled";
+    public static String SYNC_SPOOL_DIR_PARAM = "conf.sync.spool.dir";
+    public static String SYNC_BISECT_REJECTED_BULKS_PARAM = "conf.sync.bisectRejectedBulks";
+    public static String SYNC_BULK_DEADLINE_PARAM = "conf.sync.bulkDeadline";
+    public static String SYNC_MAX_CONCURRENT_PAIRS_PARAM = "conf.sync.maxConcurrentPairs";
+    public static String SYNC_MAX_CONCURRENT_PAIRS_PER_ALM_SERVER_PARAM = "conf.sync.maxConcurrentPairsPerAlmServer";
+
+    public static String DAEMON_ENABLED_PARAM = "conf.daemon.enabled";
+    public static String DAEMON_INTERVAL_PARAM = "conf.daemon.interval";
+    public static String DAEMON_CRON_PARAM = "conf.daemon.cron";
+
+    public static String HTTP_MAX_CONNECTIONS_PARAM = "conf.http.maxConnections";
+    public static String HTTP_MAX_CONNECTIONS_PER_ROUTE_PARAM = "conf.http.maxConnectionsPerRoute";
+    public static String HTTP_IDLE_CONNECTION_TIMEOUT_PARAM = "conf.http.idleConnectionTimeout";
+    public static String HTTP_KEEP_ALIVE_PARAM = "conf.http.keepAlive";
+    public static String HTTP_CONNECT_TIMEOUT_PARAM = "conf.http.connectTimeout";
+    public static String HTTP_READ_TIMEOUT_PARAM = "conf.http.readTimeout";
+    public static String HTTP_RETRY_MAX_ATTEMPTS_PARAM = "conf.http.retry.maxAttempts";
+    public static String HTTP_RETRY_BASE_DELAY_PARAM = "conf.http.retry.baseDelay";
+    public static String HTTP_RETRY_MAX_DELAY_PARAM = "conf.http.retry.maxDelay";
+    public static String HTTP_RETRY_BUDGET_PARAM = "conf.http.retry.budget";
+    public static String HTTP_RETRY_STATUSES_PARAM = "conf.http.retry.statuses";
+    public static String HTTP_RETRY_POST_STATUSES_PARAM = "conf.http.retry.postStatuses";
+    public static String HTTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD_PARAM = "conf.http.circuitBreaker.failureThreshold";
+    public static String HTTP_CIRCUIT_BREAKER_COOLDOWN_PARAM = "conf.http.circuitBreaker.cooldown";
+    public static String HTTP_CIRCUIT_BREAKER_MAX_PAUSE_PARAM = "conf.http.circuitBreaker.maxPause";
 
     public static String PROXY_HOST_PARAM = "conf.proxy.host";
     public static String PROXY_PORT_PARAM = "conf.proxy.port";
@@ -77,6 +131,11 @@ public class FetchConfiguration {
 
     public Set<String> allowedParameters;
     private Map<String, String> lowered2allowedParams;
+    private Map<String, String> defaultValues = new HashMap<>();
+
+    //element of pairs section, each pair overrides parameters of the base configuration
+    private static String PAIRS_ELEMENT = "pairs";
+    private List<Map<String, String>> pairOverrides = new ArrayList<>();
 
     private static int ALM_RUN_FILTER_FETCH_LIMIT_DEFAULT = 200000;
     private static int ALM_RUN_FILTER_FETCH_LIMIT_MAX = 1000000;
@@ -92,13 +151,61 @@ public class FetchConfiguration {
     private static int SYNC_SLEEP_BETWEEN_POSTS_MIN = 1;//sec
 
 
+    private static int SYNC_MAX_BULKS_IN_FLIGHT_DEFAULT = 1;
+    private static int SYNC_MAX_BULKS_IN_FLIGHT_MAX = 10;
+    private static int SYNC_ADAPTIVE_THROTTLING_MAX_JOBS_IN_FLIGHT_MAX = 50;
+    private static int SYNC_MAX_CONCURRENT_PAIRS_DEFAULT = 4;
+    private static int SYNC_MAX_CONCURRENT_PAIRS_MAX = 32;
+    private static int SYNC_MAX_CONCURRENT_PAIRS_PER_ALM_SERVER_DEFAULT = 2;
+
+    private static int ALM_MAX_CONCURRENT_REQUESTS_MAX = 16;
+
+    private static int ALM_REFERENCE_CACHE_SIZE_MAX = 1000000;
+
+    private static int ALM_FETCH_PARTITIONS_DEFAULT = 1;
+    private static int ALM_FETCH_PARTITIONS_MAX = 16;
+
+    private static int DAEMON_INTERVAL_DEFAULT = 15;//min
+    private static int DAEMON_INTERVAL_MAX = 1440;//min
+
+    private static int HTTP_MAX_CONNECTIONS_MAX = 200;
+    private static int HTTP_MAX_CONNECTIONS_PER_ROUTE_MAX = 50;
+    private static int HTTP_IDLE_CONNECTION_TIMEOUT_MAX = 3600;//sec
+    private static int HTTP_KEEP_ALIVE_MAX = 3600;//sec
+    private static int HTTP_CONNECT_TIMEOUT_MAX = 600;//sec
+    private static int RATE_LIMIT_MAX = 10000;//requests per second
+    private static int SESSION_TTL_MAX = 7 * 24 * 60 * 60;//sec
+    private static int HTTP_READ_TIMEOUT_MAX = 3600;//sec
+    private static int SYNC_BULK_DEADLINE_DEFAULT = 1800;//sec
+    private static int SYNC_BULK_DEADLINE_MAX = 24 * 3600;//sec
+    private static int HTTP_RETRY_MAX_ATTEMPTS_MAX = 10;
+    private static int HTTP_RETRY_DELAY_MAX = 10 * 60 * 1000;//ms
+    private static int HTTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD_MAX = 100;
+    private static int HTTP_CIRCUIT_BREAKER_COOLDOWN_MAX = 3600;//sec
+    private static int HTTP_CIRCUIT_BREAKER_MAX_PAUSE_MAX = 24 * 3600;//sec
+
     public static String ALM_RUN_FILTER_START_FROM_ID_LAST_SENT = "LAST_SENT";
+    public static String ALM_RUN_FILTER_BACKFILL_WINDOW_DAY = "day";
+    public static String ALM_RUN_FILTER_BACKFILL_WINDOW_WEEK = "week";
 
     public FetchConfiguration() {
         allowedParameters = new HashSet<>(Arrays.asList(ALM_USER_PARAM, ALM_PASSWORD_PARAM, ALM_SERVER_URL_PARAM, ALM_DOMAIN_PARAM, ALM_PROJECT_PARAM,
                 OCTANE_PASSWORD_PARAM, OCTANE_USER_PARAM, OCTANE_SERVER_URL_PARAM, OCTANE_SHAREDSPACE_ID_PARAM, OCTANE_WORKSPACE_ID_PARAM,SOURCE_FILE_PARAM,
                 ALM_RUN_FILTER_START_FROM_ID_PARAM, ALM_RUN_FILTER_START_FROM_DATE_PARAM, ALM_RUN_FILTER_TEST_TYPE_PARAM, ALM_RUN_FILTER_RELATED_ENTITY_TYPE_PARAM, ALM_RUN_FILTER_RELATED_ENTITY_ID_PARAM,
-                ALM_RUN_FILTER_CUSTOM_PARAM, SYNC_BULK_SIZE_PARAM, SYNC_SLEEP_BETWEEN_POSTS_PARAM, PROXY_HOST_PARAM, PROXY_PORT_PARAM, OUTPUT_FILE_PARAM, ALM_RUN_FILTER_FETCH_LIMIT_PARAM));
+                ALM_RUN_FILTER_CUSTOM_PARAM, SYNC_BULK_SIZE_PARAM, SYNC_SLEEP_BETWEEN_POSTS_PARAM, PROXY_HOST_PARAM, PROXY_PORT_PARAM, OUTPUT_FILE_PARAM, ALM_RUN_FILTER_FETCH_LIMIT_PARAM,
+                HTTP_MAX_CONNECTIONS_PARAM, HTTP_MAX_CONNECTIONS_PER_ROUTE_PARAM, HTTP_IDLE_CONNECTION_TIMEOUT_PARAM, HTTP_KEEP_ALIVE_PARAM,
+                ALM_MAX_CONCURRENT_REQUESTS_PARAM, ALM_GZIP_RESPONSES_PARAM, OCTANE_GZIP_UPLOADS_PARAM, ALM_REFERENCE_CACHE_SIZE_PARAM,
+                ALM_REFERENCE_CACHE_PERSISTENT_PARAM, ALM_REFERENCE_CACHE_DIR_PARAM,
+                SYNC_ADAPTIVE_THROTTLING_ENABLED_PARAM, SYNC_ADAPTIVE_THROTTLING_MAX_JOBS_IN_FLIGHT_PARAM, SYNC_MAX_BULKS_IN_FLIGHT_PARAM,
+                ALM_FETCH_PARTITIONS_PARAM, ALM_RUN_FILTER_BACKFILL_WINDOW_PARAM,
+                SYNC_MAX_CONCURRENT_PAIRS_PARAM, SYNC_MAX_CONCURRENT_PAIRS_PER_ALM_SERVER_PARAM,
+                DAEMON_ENABLED_PARAM, DAEMON_INTERVAL_PARAM, DAEMON_CRON_PARAM, SYNC_SPOOL_ENABLED_PARAM, SYNC_SPOOL_DIR_PARAM,
+                SYNC_BISECT_REJECTED_BULKS_PARAM, HTTP_RETRY_MAX_ATTEMPTS_PARAM, HTTP_RETRY_BASE_DELAY_PARAM, HTTP_RETRY_MAX_DELAY_PARAM,
+                HTTP_RETRY_BUDGET_PARAM, HTTP_RETRY_STATUSES_PARAM, HTTP_RETRY_POST_STATUSES_PARAM,
+                HTTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD_PARAM, HTTP_CIRCUIT_BREAKER_COOLDOWN_PARAM, HTTP_CIRCUIT_BREAKER_MAX_PAUSE_PARAM,
+                HTTP_CONNECT_TIMEOUT_PARAM, HTTP_READ_TIMEOUT_PARAM, SYNC_BULK_DEADLINE_PARAM,
+                ALM_RATE_LIMIT_READ_PARAM, ALM_RATE_LIMIT_WRITE_PARAM, OCTANE_RATE_LIMIT_READ_PARAM, OCTANE_RATE_LIMIT_WRITE_PARAM,
+                ALM_SESSION_TTL_PARAM, OCTANE_SESSION_TTL_PARAM));
 
         lowered2allowedParams = new HashMap<>();
         for (String param : allowedParameters) {
@@ -123,23 +230,45 @@ public class FetchConfiguration {
             props.remove(ALM_RUN_FILTER_FETCH_LIMIT_PARAM);
         }
 
+        for (Map.Entry<String, String> entry : defaultValues.entrySet()) {
+            if (entry.getValue().equals(props.get(entry.getKey()))) {
+                props.remove(entry.getKey());
+            }
+        }
+
         logger.info("Loaded configuration : " + (props.entrySet().toString()));
+
+        for (int i = 0; i < pairOverrides.size(); i++) {
+            TreeMap<String, String> pairProps = new TreeMap<>(pairOverrides.get(i));
+            pairProps.remove(ALM_PASSWORD_PARAM);
+            pairProps.remove(OCTANE_PASSWORD_PARAM);
+            logger.info(String.format("Loaded pair #%s : %s", i + 1, pairProps.entrySet().toString()));
+        }
     }
 
     public void validateProperties() {
 
-        //MUST PARAMETERS
-        validateMustParameter(ALM_USER_PARAM);
-        validateMustParameter(ALM_PROJECT_PARAM);
-        validateMustParameter(ALM_DOMAIN_PARAM);
-        validateMustParameter(ALM_SERVER_URL_PARAM);
+        //PAIRS, must parameters are validated per pair
+        if (hasPairs()) {
+            if (StringUtils.isNotEmpty(getOutputFile()) || StringUtils.isNotEmpty(getSourceFile())) {
+                throw new RuntimeException("Output file and source file are not supported together with <pairs> section");
+            }
+        } else {
+            //MUST PARAMETERS
+            validateMustParameter(ALM_USER_PARAM);
+            validateMustParameter(ALM_PROJECT_PARAM);
+            validateMustParameter(ALM_DOMAIN_PARAM);
+            validateMustParameter(ALM_SERVER_URL_PARAM);
+        }
 
         if(StringUtils.isEmpty(getOutputFile())) {
             //MUST
-            validateMustParameter(OCTANE_USER_PARAM);
-            validateMustParameter(OCTANE_WORKSPACE_ID_PARAM);
-            validateMustParameter(OCTANE_SHAREDSPACE_ID_PARAM);
-            validateMustParameter(OCTANE_SERVER_URL_PARAM);
+            if (!hasPairs()) {
+                validateMustParameter(OCTANE_USER_PARAM);
+                validateMustParameter(OCTANE_WORKSPACE_ID_PARAM);
+                validateMustParameter(OCTANE_SHAREDSPACE_ID_PARAM);
+                validateMustParameter(OCTANE_SERVER_URL_PARAM);
+            }
 
             //INTEGER
             validateIntegerParameter(OCTANE_WORKSPACE_ID_PARAM);
@@ -259,6 +388,252 @@ public class FetchConfiguration {
         }
         setProperty(SYNC_SLEEP_BETWEEN_POSTS_PARAM, Integer.toString(sleepBetweenPosts));
 
+        //CONCURRENT POSTS
+        validateIntegerInRangeParameter(SYNC_MAX_BULKS_IN_FLIGHT_PARAM, SYNC_MAX_BULKS_IN_FLIGHT_DEFAULT, 1, SYNC_MAX_BULKS_IN_FLIGHT_MAX);
+
+        //ADAPTIVE THROTTLING
+        validateBooleanParameter(SYNC_ADAPTIVE_THROTTLING_ENABLED_PARAM, false);
+        validateIntegerInRangeParameter(SYNC_ADAPTIVE_THROTTLING_MAX_JOBS_IN_FLIGHT_PARAM, AdaptiveSendController.MAX_JOBS_IN_FLIGHT_DEFAULT, 1, SYNC_ADAPTIVE_THROTTLING_MAX_JOBS_IN_FLIGHT_MAX);
+
+        //SPOOL
+        validateBooleanParameter(SYNC_SPOOL_ENABLED_PARAM, false);
+        if (StringUtils.isEmpty(getSyncSpoolDir())) {
+            setProperty(SYNC_SPOOL_DIR_PARAM, BulkSpool.DIR_DEFAULT);
+        }
+        defaultValues.put(SYNC_SPOOL_DIR_PARAM, BulkSpool.DIR_DEFAULT);
+
+        //BISECT
+        validateBooleanParameter(SYNC_BISECT_REJECTED_BULKS_PARAM, false);
+
+        //ALM CONCURRENCY
+        validateIntegerInRangeParameter(ALM_MAX_CONCURRENT_REQUESTS_PARAM, AlmEntityService.MAX_CONCURRENT_REQUESTS_DEFAULT, 1, ALM_MAX_CONCURRENT_REQUESTS_MAX);
+
+        //BACKFILL WINDOW
+        String backfillWindow = getAlmRunFilterBackfillWindow();
+        if (StringUtils.isNotEmpty(backfillWindow)) {
+            backfillWindow = backfillWindow.toLowerCase();
+            List<String> allowedWindows = Arrays.asList(ALM_RUN_FILTER_BACKFILL_WINDOW_DAY, ALM_RUN_FILTER_BACKFILL_WINDOW_WEEK);
+            if (!allowedWindows.contains(backfillWindow)) {
+                throw new RuntimeException(String.format("Configuration contains illegal value for parameter '%s', allowed values are %s",
+                        ALM_RUN_FILTER_BACKFILL_WINDOW_PARAM, allowedWindows.toString()));
+            }
+            if (StringUtils.isEmpty(startFromDateValue)) {
+                throw new RuntimeException(String.format("Configuration contains value for parameter '%s', but missing value for parameter '%s'",
+                        ALM_RUN_FILTER_BACKFILL_WINDOW_PARAM, ALM_RUN_FILTER_START_FROM_DATE_PARAM));
+            }
+            setProperty(ALM_RUN_FILTER_BACKFILL_WINDOW_PARAM, backfillWindow);
+        }
+
+        //PARTITIONED FETCH
+        validateIntegerInRangeParameter(ALM_FETCH_PARTITIONS_PARAM, ALM_FETCH_PARTITIONS_DEFAULT, 1, ALM_FETCH_PARTITIONS_MAX);
+
+        //REFERENCE CACHE, all entities of the bulk must fit the cache
+        validateIntegerInRangeParameter(ALM_REFERENCE_CACHE_SIZE_PARAM, AlmWrapperService.REFERENCE_CACHE_SIZE_DEFAULT, SYNC_BULK_SIZE_MAX, ALM_REFERENCE_CACHE_SIZE_MAX);
+        validateBooleanParameter(ALM_REFERENCE_CACHE_PERSISTENT_PARAM, false);
+        if (StringUtils.isEmpty(getAlmReferenceCacheDir())) {
+            setProperty(ALM_REFERENCE_CACHE_DIR_PARAM, PersistentReferenceCache.DIR_DEFAULT);
+        }
+        defaultValues.put(ALM_REFERENCE_CACHE_DIR_PARAM, PersistentReferenceCache.DIR_DEFAULT);
+
+        //CONNECTION POOL
+        validateIntegerInRangeParameter(HTTP_MAX_CONNECTIONS_PARAM, HttpConnectionPool.MAX_CONNECTIONS_DEFAULT, 1, HTTP_MAX_CONNECTIONS_MAX);
+        validateIntegerInRangeParameter(HTTP_MAX_CONNECTIONS_PER_ROUTE_PARAM, HttpConnectionPool.MAX_CONNECTIONS_PER_ROUTE_DEFAULT, 1, HTTP_MAX_CONNECTIONS_PER_ROUTE_MAX);
+        validateIntegerInRangeParameter(HTTP_IDLE_CONNECTION_TIMEOUT_PARAM, HttpConnectionPool.IDLE_CONNECTION_TIMEOUT_DEFAULT, 1, HTTP_IDLE_CONNECTION_TIMEOUT_MAX);
+        validateIntegerInRangeParameter(HTTP_KEEP_ALIVE_PARAM, HttpConnectionPool.KEEP_ALIVE_DEFAULT, 1, HTTP_KEEP_ALIVE_MAX);
+
+        //RATE LIMITS
+        validateIntegerInRangeParameter(ALM_RATE_LIMIT_READ_PARAM, 0, 0, RATE_LIMIT_MAX);
+        validateIntegerInRangeParameter(ALM_RATE_LIMIT_WRITE_PARAM, 0, 0, RATE_LIMIT_MAX);
+        validateIntegerInRangeParameter(OCTANE_RATE_LIMIT_READ_PARAM, 0, 0, RATE_LIMIT_MAX);
+        validateIntegerInRangeParameter(OCTANE_RATE_LIMIT_WRITE_PARAM, 0, 0, RATE_LIMIT_MAX);
+        validateIntegerInRangeParameter(ALM_SESSION_TTL_PARAM, 0, 0, SESSION_TTL_MAX);
+        validateIntegerInRangeParameter(OCTANE_SESSION_TTL_PARAM, 0, 0, SESSION_TTL_MAX);
+
+        //TIMEOUTS
+        validateIntegerInRangeParameter(HTTP_CONNECT_TIMEOUT_PARAM, RestConnector.CONNECT_TIMEOUT_DEFAULT, 1, HTTP_CONNECT_TIMEOUT_MAX);
+        validateIntegerInRangeParameter(HTTP_READ_TIMEOUT_PARAM, RestConnector.READ_TIMEOUT_DEFAULT, 1, HTTP_READ_TIMEOUT_MAX);
+        validateIntegerInRangeParameter(SYNC_BULK_DEADLINE_PARAM, SYNC_BULK_DEADLINE_DEFAULT, 0, SYNC_BULK_DEADLINE_MAX);
+
+        //RETRY POLICY
+        validateIntegerInRangeParameter(HTTP_RETRY_MAX_ATTEMPTS_PARAM, RetryPolicy.MAX_ATTEMPTS_DEFAULT, 1, HTTP_RETRY_MAX_ATTEMPTS_MAX);
+        validateIntegerInRangeParameter(HTTP_RETRY_BASE_DELAY_PARAM, RetryPolicy.BASE_DELAY_DEFAULT, 1, HTTP_RETRY_DELAY_MAX);
+        validateIntegerInRangeParameter(HTTP_RETRY_MAX_DELAY_PARAM, RetryPolicy.MAX_DELAY_DEFAULT, 1, HTTP_RETRY_DELAY_MAX);
+        validateIntegerInRangeParameter(HTTP_RETRY_BUDGET_PARAM, RetryPolicy.BUDGET_PERCENT_DEFAULT, 1, 100);
+        validateStatusesParameter(HTTP_RETRY_STATUSES_PARAM, RetryPolicy.STATUSES_DEFAULT);
+        validateStatusesParameter(HTTP_RETRY_POST_STATUSES_PARAM, RetryPolicy.POST_STATUSES_DEFAULT);
+
+        //CIRCUIT BREAKER
+        validateIntegerInRangeParameter(HTTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD_PARAM, CircuitBreaker.FAILURE_THRESHOLD_DEFAULT, 0, HTTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD_MAX);
+        validateIntegerInRangeParameter(HTTP_CIRCUIT_BREAKER_COOLDOWN_PARAM, CircuitBreaker.COOLDOWN_DEFAULT, 1, HTTP_CIRCUIT_BREAKER_COOLDOWN_MAX);
+        validateIntegerInRangeParameter(HTTP_CIRCUIT_BREAKER_MAX_PAUSE_PARAM, CircuitBreaker.MAX_PAUSE_DEFAULT, 0, HTTP_CIRCUIT_BREAKER_MAX_PAUSE_MAX);
+
+        //COMPRESSION
+        validateBooleanParameter(ALM_GZIP_RESPONSES_PARAM, false);
+        validateBooleanParameter(OCTANE_GZIP_UPLOADS_PARAM, false);
+
+        //PAIRS
+        validateIntegerInRangeParameter(SYNC_MAX_CONCURRENT_PAIRS_PARAM, SYNC_MAX_CONCURRENT_PAIRS_DEFAULT, 1, SYNC_MAX_CONCURRENT_PAIRS_MAX);
+        validateIntegerInRangeParameter(SYNC_MAX_CONCURRENT_PAIRS_PER_ALM_SERVER_PARAM, SYNC_MAX_CONCURRENT_PAIRS_PER_ALM_SERVER_DEFAULT, 1, SYNC_MAX_CONCURRENT_PAIRS_MAX);
+
+        //DAEMON
+        validateBooleanParameter(DAEMON_ENABLED_PARAM, false);
+        validateIntegerInRangeParameter(DAEMON_INTERVAL_PARAM, DAEMON_INTERVAL_DEFAULT, 1, DAEMON_INTERVAL_MAX);
+        if (StringUtils.isNotEmpty(getDaemonCron())) {
+            try {
+                SyncSchedule.cron(getDaemonCron()).getNextTime(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                throw new RuntimeException(String.format("Configuration parameter '%s' is not valid : %s", DAEMON_CRON_PARAM, e.getMessage()));
+            }
+        }
+        if (Boolean.parseBoolean(getDaemonEnabled())) {
+            validateDaemonMode();
+        }
+
+        if (hasPairs()) {
+            getPairConfigurations();
+        }
+    }
+
+    /**
+     * Each cycle of daemon continues from last sent run
+     */
+    private void validateDaemonMode() {
+        if (StringUtils.isNotEmpty(getOutputFile()) || StringUtils.isNotEmpty(getSourceFile())) {
+            throw new RuntimeException("Output file and source file are not supported in daemon mode");
+        }
+        if (StringUtils.isNotEmpty(getAlmRunFilterBackfillWindow())) {
+            throw new RuntimeException(String.format("Configuration parameter '%s' is not supported in daemon mode", ALM_RUN_FILTER_BACKFILL_WINDOW_PARAM));
+        }
+        String startFromId = getAlmRunFilterStartFromId();
+        if (StringUtils.isEmpty(startFromId)) {
+            setAlmRunFilterStartFromId(ALM_RUN_FILTER_START_FROM_ID_LAST_SENT);
+        } else if (!ALM_RUN_FILTER_START_FROM_ID_LAST_SENT.equals(startFromId)) {
+            throw new RuntimeException(String.format("Configuration parameter '%s' must be empty or %s in daemon mode",
+                    ALM_RUN_FILTER_START_FROM_ID_PARAM, ALM_RUN_FILTER_START_FROM_ID_LAST_SENT));
+        }
+    }
+
+    /**
+     * @return schedule of daemon cycles, cron expression is preferred over interval
+     */
+    public SyncSchedule getDaemonSchedule() {
+        if (StringUtils.isNotEmpty(getDaemonCron())) {
+            return SyncSchedule.cron(getDaemonCron());
+        }
+        return SyncSchedule.every(Integer.parseInt(getDaemonInterval()));
+    }
+
+    public boolean hasPairs() {
+        return !pairOverrides.isEmpty();
+    }
+
+    /**
+     * Configuration of each pair is the base configuration, overridden by parameters of the pair.
+     * Should be called after validation of the base configuration, so parameters set by command line are included.
+     *
+     * @return validated configuration of each ALM project - ALM Octane workspace pair
+     */
+    public List<FetchConfiguration> getPairConfigurations() {
+        List<FetchConfiguration> pairs = new ArrayList<>();
+        Map<String, Integer> almSessions = new HashMap<>();
+        Map<String, Integer> octaneSessions = new HashMap<>();
+        for (int i = 0; i < pairOverrides.size(); i++) {
+            FetchConfiguration pair = new FetchConfiguration();
+            pair.properties.putAll(properties);
+            pair.properties.putAll(pairOverrides.get(i));
+            try {
+                pair.validateProperties();
+            } catch (RuntimeException e) {
+                throw new RuntimeException(String.format("Pair #%s : %s", i + 1, e.getMessage()), e);
+            }
+            pairs.add(pair);
+            validateSharedSession(pairs, almSessions, pair.getAlmServerUrl() + "|" + pair.getAlmUser(), ALM_SESSION_TTL_PARAM, ALM_GZIP_RESPONSES_PARAM);
+            validateSharedSession(pairs, octaneSessions, pair.getOctaneServerUrl() + "|" + pair.getOctaneUser(), OCTANE_SESSION_TTL_PARAM);
+        }
+        return pairs;
+    }
+
+    /**
+     * Pairs that connect to the same server as the same user share one login session and its connector,
+     * so parameters of the connector must be the same in these pairs
+     *
+     * @param pairs    validated pairs, the last one is checked
+     * @param sessions index of the first pair of each session
+     */
+    private static void validateSharedSession(List<FetchConfiguration> pairs, Map<String, Integer> sessions, String session, String... params) {
+        int index = pairs.size() - 1;
+        Integer firstIndex = sessions.putIfAbsent(session, index);
+        if (firstIndex == null) {
+            return;
+        }
+        for (String param : params) {
+            String value = pairs.get(index).getProperty(param);
+            String firstValue = pairs.get(firstIndex).getProperty(param);
+            if (!StringUtils.equals(value, firstValue)) {
+                throw new RuntimeException(String.format("Pair #%s : configuration parameter '%s' is %s, but it is %s in pair #%s. " +
+                                "Pairs that connect to the same server as the same user share login session and should have the same value",
+                        index + 1, param, value, firstValue, firstIndex + 1));
+            }
+        }
+    }
+
+    /**
+     * @return name of ALM project and ALM Octane workspace pair, used in logs
+     */
+    public String getPairName() {
+        return String.format("%s/%s->%s/%s", getAlmDomain(), getAlmProject(), getOctaneSharedSpaceId(), getOctaneWorkspaceId());
+    }
+
+    /**
+     * Optional boolean parameter : true or false, if value is missing - default value is used
+     */
+    private void validateBooleanParameter(String key, boolean defaultValue) {
+        String valueStr = getProperty(key);
+        boolean value = defaultValue;
+        if (StringUtils.isNotEmpty(valueStr)) {
+            if (!"true".equalsIgnoreCase(valueStr) && !"false".equalsIgnoreCase(valueStr)) {
+                throw new RuntimeException(String.format("Configuration parameter '%s' must hold true or false value, but contains '%s'", key, valueStr));
+            }
+            value = Boolean.parseBoolean(valueStr);
+        }
+        defaultValues.put(key, Boolean.toString(defaultValue));
+        setProperty(key, Boolean.toString(value));
+    }
+
+    /**
+     * Optional integer parameter : if value is missing or out of range - default value is used
+     */
+    private void validateIntegerInRangeParameter(String key, int defaultValue, int min, int max) {
+        validateIntegerParameter(key);
+        String valueStr = getProperty(key);
+        int value = defaultValue;
+        if (StringUtils.isNotEmpty(valueStr)) {
+            value = Integer.parseInt(valueStr);
+            if (value < min || value > max) {
+                logger.warn(String.format("Configuration parameter '%s' should be in range of %s-%s, default value %s is used", key, min, max, defaultValue));
+                value = defaultValue;
+            }
+        }
+        defaultValues.put(key, Integer.toString(defaultValue));
+        setProperty(key, Integer.toString(value));
+    }
+
+    /**
+     * Optional parameter of comma separated http statuses
+     */
+    private void validateStatusesParameter(String key, String defaultValue) {
+        String value = getProperty(key);
+        if (StringUtils.isEmpty(value)) {
+            value = defaultValue;
+        } else {
+            try {
+                RetryPolicy.parseStatuses(value);
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException(String.format("Configuration parameter '%s' must hold comma separated http statuses, but contains '%s'", key, value));
+            }
+        }
+        defaultValues.put(key, defaultValue);
+        setProperty(key, value);
     }
 
     private void validateIntegerParameter(String key) {
@@ -309,7 +684,9 @@ public class FetchConfiguration {
         NodeList nList = node.getChildNodes();
         for (int i = 0; i < nList.getLength(); i++) {
             Node nNode = nList.item(i);
-            if (nNode.getNodeType() == Node.ELEMENT_NODE) {
+            if (nNode.getNodeType() == Node.ELEMENT_NODE && "conf".equals(prefix) && PAIRS_ELEMENT.equals(nNode.getNodeName())) {
+                parsePairs(nNode, configuration);
+            } else if (nNode.getNodeType() == Node.ELEMENT_NODE) {
                 parseNodes(nNode, prefix + "." + nNode.getNodeName(), configuration);
             } else if (nNode.getNodeType() == Node.TEXT_NODE) {
                 String value = nNode.getTextContent().trim();
@@ -321,6 +698,24 @@ public class FetchConfiguration {
         }
     }
 
+    /**
+     * Each pair element holds the same elements as conf element, for example alm/project or octane/workspaceId
+     */
+    private static void parsePairs(Node pairsNode, FetchConfiguration configuration) {
+        NodeList nList = pairsNode.getChildNodes();
+        for (int i = 0; i < nList.getLength(); i++) {
+            Node nNode = nList.item(i);
+            if (nNode.getNodeType() == Node.ELEMENT_NODE) {
+                if (!"pair".equals(nNode.getNodeName())) {
+                    throw new RuntimeException("Unknown element in <pairs> section : " + nNode.getNodeName());
+                }
+                FetchConfiguration pair = new FetchConfiguration();
+                parseNodes(nNode, "conf", pair);
+                configuration.pairOverrides.add(pair.properties);
+            }
+        }
+    }
+
     public String getProperty(String key) {
         return properties.get(key);
     }
@@ -361,6 +756,34 @@ public class FetchConfiguration {
         setProperty(OCTANE_PASSWORD_PARAM, value);
     }
 
+    public String getAlmMaxConcurrentRequests() {
+        return getProperty(ALM_MAX_CONCURRENT_REQUESTS_PARAM);
+    }
+
+    public String getAlmRunFilterBackfillWindow() {
+        return getProperty(ALM_RUN_FILTER_BACKFILL_WINDOW_PARAM);
+    }
+
+    public String getAlmFetchPartitions() {
+        return getProperty(ALM_FETCH_PARTITIONS_PARAM);
+    }
+
+    public String getAlmReferenceCacheSize() {
+        return getProperty(ALM_REFERENCE_CACHE_SIZE_PARAM);
+    }
+
+    public String getAlmReferenceCachePersistent() {
+        return getProperty(ALM_REFERENCE_CACHE_PERSISTENT_PARAM);
+    }
+
+    public String getAlmReferenceCacheDir() {
+        return getProperty(ALM_REFERENCE_CACHE_DIR_PARAM);
+    }
+
+    public String getAlmGzipResponses() {
+        return getProperty(ALM_GZIP_RESPONSES_PARAM);
+    }
+
     public String getOctanePassword() {
         return getProperty(OCTANE_PASSWORD_PARAM);
     }
@@ -381,6 +804,94 @@ public class FetchConfiguration {
         return getProperty(OCTANE_WORKSPACE_ID_PARAM);
     }
 
+    public String getOctaneGzipUploads() {
+        return getProperty(OCTANE_GZIP_UPLOADS_PARAM);
+    }
+
+    public String getHttpMaxConnections() {
+        return getProperty(HTTP_MAX_CONNECTIONS_PARAM);
+    }
+
+    public String getHttpMaxConnectionsPerRoute() {
+        return getProperty(HTTP_MAX_CONNECTIONS_PER_ROUTE_PARAM);
+    }
+
+    public String getHttpIdleConnectionTimeout() {
+        return getProperty(HTTP_IDLE_CONNECTION_TIMEOUT_PARAM);
+    }
+
+    public String getHttpKeepAlive() {
+        return getProperty(HTTP_KEEP_ALIVE_PARAM);
+    }
+
+    public String getAlmRateLimitRead() {
+        return getProperty(ALM_RATE_LIMIT_READ_PARAM);
+    }
+
+    public String getAlmRateLimitWrite() {
+        return getProperty(ALM_RATE_LIMIT_WRITE_PARAM);
+    }
+
+    public String getOctaneRateLimitRead() {
+        return getProperty(OCTANE_RATE_LIMIT_READ_PARAM);
+    }
+
+    public String getOctaneRateLimitWrite() {
+        return getProperty(OCTANE_RATE_LIMIT_WRITE_PARAM);
+    }
+
+    public String getAlmSessionTtl() {
+        return getProperty(ALM_SESSION_TTL_PARAM);
+    }
+
+    public String getOctaneSessionTtl() {
+        return getProperty(OCTANE_SESSION_TTL_PARAM);
+    }
+
+    public String getHttpConnectTimeout() {
+        return getProperty(HTTP_CONNECT_TIMEOUT_PARAM);
+    }
+
+    public String getHttpReadTimeout() {
+        return getProperty(HTTP_READ_TIMEOUT_PARAM);
+    }
+
+    public String getHttpRetryMaxAttempts() {
+        return getProperty(HTTP_RETRY_MAX_ATTEMPTS_PARAM);
+    }
+
+    public String getHttpRetryBaseDelay() {
+        return getProperty(HTTP_RETRY_BASE_DELAY_PARAM);
+    }
+
+    public String getHttpRetryMaxDelay() {
+        return getProperty(HTTP_RETRY_MAX_DELAY_PARAM);
+    }
+
+    public String getHttpRetryBudget() {
+        return getProperty(HTTP_RETRY_BUDGET_PARAM);
+    }
+
+    public String getHttpRetryStatuses() {
+        return getProperty(HTTP_RETRY_STATUSES_PARAM);
+    }
+
+    public String getHttpRetryPostStatuses() {
+        return getProperty(HTTP_RETRY_POST_STATUSES_PARAM);
+    }
+
+    public String getHttpCircuitBreakerFailureThreshold() {
+        return getProperty(HTTP_CIRCUIT_BREAKER_FAILURE_THRESHOLD_PARAM);
+    }
+
+    public String getHttpCircuitBreakerCooldown() {
+        return getProperty(HTTP_CIRCUIT_BREAKER_COOLDOWN_PARAM);
+    }
+
+    public String getHttpCircuitBreakerMaxPause() {
+        return getProperty(HTTP_CIRCUIT_BREAKER_MAX_PAUSE_PARAM);
+    }
+
     public String getProxyHost() {
         return getProperty(PROXY_HOST_PARAM);
     }
@@ -425,6 +936,58 @@ public class FetchConfiguration {
         return getProperty(SYNC_SLEEP_BETWEEN_POSTS_PARAM);
     }
 
+    public String getSyncMaxBulksInFlight() {
+        return getProperty(SYNC_MAX_BULKS_IN_FLIGHT_PARAM);
+    }
+
+    public String getSyncAdaptiveThrottlingEnabled() {
+        return getProperty(SYNC_ADAPTIVE_THROTTLING_ENABLED_PARAM);
+    }
+
+    public String getSyncAdaptiveThrottlingMaxJobsInFlight() {
+        return getProperty(SYNC_ADAPTIVE_THROTTLING_MAX_JOBS_IN_FLIGHT_PARAM);
+    }
+
+    public String getSyncSpoolEnabled() {
+        return getProperty(SYNC_SPOOL_ENABLED_PARAM);
+    }
+
+    public String getSyncSpoolDir() {
+        return getProperty(SYNC_SPOOL_DIR_PARAM);
+    }
+
+    public String getSyncBisectRejectedBulks() {
+        return getProperty(SYNC_BISECT_REJECTED_BULKS_PARAM);
+    }
+
+    public String getSyncBulkDeadline() {
+        return getProperty(SYNC_BULK_DEADLINE_PARAM);
+    }
+
+    public String getSyncMaxConcurrentPairs() {
+        return getProperty(SYNC_MAX_CONCURRENT_PAIRS_PARAM);
+    }
+
+    public String getSyncMaxConcurrentPairsPerAlmServer() {
+        return getProperty(SYNC_MAX_CONCURRENT_PAIRS_PER_ALM_SERVER_PARAM);
+    }
+
+    public String getDaemonEnabled() {
+        return getProperty(DAEMON_ENABLED_PARAM);
+    }
+
+    public void setDaemonEnabled(boolean value) {
+        setProperty(DAEMON_ENABLED_PARAM, Boolean.toString(value));
+    }
+
+    public String getDaemonInterval() {
+        return getProperty(DAEMON_INTERVAL_PARAM);
+    }
+
+    public String getDaemonCron() {
+        return getProperty(DAEMON_CRON_PARAM);
+    }
+
     public String getSyncBulkSize() {
         return getProperty(SYNC_BULK_SIZE_PARAM);
     }
@@ -0,0 +1,198 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import com.microfocus.mqm.atrf.alm.services.AlmRestConstants;
+import com.microfocus.mqm.atrf.octane.services.OctaneRestConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Process wide circuit breakers of RestConnector requests, one per base url and operation class.
+ * Circuit is closed while requests succeed. After configured number of consecutive failures (transport failures, 5xx and 429)
+ * the circuit is open : requests fail fast by CircuitOpenException without reaching the server.
+ * After cooldown the circuit is half-open : one probe request is sent, its success closes the circuit and its failure opens it again.
+ * Pipeline stages use {@link #pauseWhileOpen(Supplier)}, so their work waits for the probe instead of failing or hammering the server.
+ */
+public class CircuitBreaker {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final int FAILURE_THRESHOLD_DEFAULT = 5;
+    public static final int COOLDOWN_DEFAULT = 30;//sec
+    public static final int MAX_PAUSE_DEFAULT = 600;//sec
+
+    public enum Operation {
+        AUTH, ENTITY_GET, RESULTS_POST, STATUS_GET, OTHER
+    }
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final String TEST_RESULTS_URL = "/test-results";
+
+    private static volatile int failureThreshold = FAILURE_THRESHOLD_DEFAULT;
+    private static volatile long cooldown = COOLDOWN_DEFAULT * 1000L;
+    private static volatile long maxPause = MAX_PAUSE_DEFAULT * 1000L;
+    private static final Map<String, CircuitBreaker> breakers = new TreeMap<>();
+
+    private final String name;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    private CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param failureThreshold number of consecutive failures that open the circuit, 0 disables circuit breakers
+     * @param cooldown         in seconds, how long circuit is open before probe request
+     * @param maxPause         in seconds, how long pipeline stage waits for open circuit before it fails
+     */
+    public static synchronized void configure(int failureThreshold, int cooldown, int maxPause) {
+        CircuitBreaker.failureThreshold = failureThreshold;
+        CircuitBreaker.cooldown = cooldown * 1000L;
+        CircuitBreaker.maxPause = maxPause * 1000L;
+        breakers.clear();
+    }
+
+    public static synchronized CircuitBreaker get(String baseUrl, Operation operation) {
+        String key = operation + " " + baseUrl;
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(key);
+            breakers.put(key, breaker);
+        }
+        return breaker;
+    }
+
+    public static Operation classify(String method, String url) {
+        if (url.contains(AlmRestConstants.ALM_REST_AUTHENTICATION) || url.contains(AlmRestConstants.ALM_REST_SESSION)
+                || url.contains(OctaneRestConstants.AUTHENTICATION_URL)) {
+            return Operation.AUTH;
+        }
+        if (url.contains(TEST_RESULTS_URL)) {
+            return "POST".equals(method) ? Operation.RESULTS_POST : Operation.STATUS_GET;
+        }
+        return "GET".equals(method) ? Operation.ENTITY_GET : Operation.OTHER;
+    }
+
+    /**
+     * Runs the operation, while circuit of its endpoint is open, the caller waits for the probe and runs the operation again.
+     *
+     * @throws CircuitOpenException if circuit is open longer than maximum pause or deadline of the thread, or the thread is interrupted
+     */
+    public static <T> T pauseWhileOpen(Supplier<T> operation) {
+        long pauseStart = System.currentTimeMillis();
+        while (true) {
+            try {
+                return operation.get();
+            } catch (RuntimeException e) {
+                CircuitOpenException openException = CircuitOpenException.find(e);
+                long pause = openException == null ? 0 : Math.max(openException.getRemainingOpenTime(), 1000);
+                if (openException == null || System.currentTimeMillis() - pauseStart > maxPause || pause >= Deadline.getRemaining()) {
+                    throw e;
+                }
+                logger.warn(String.format("%s, pausing for %s sec", openException.getMessage(), pause / 1000));
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called before each attempt of request
+     *
+     * @throws CircuitOpenException if the circuit is open, or half-open and its probe is in flight
+     */
+    public synchronized void acquire() {
+        if (failureThreshold == 0 || state == State.CLOSED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN && now >= openUntil) {
+            state = State.HALF_OPEN;
+            logger.info(String.format("Circuit %s is half-open, sending probe request", name));
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return;
+        }
+        throw new CircuitOpenException(String.format("Circuit %s is open", name), Math.max(openUntil - now, 0));
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            logger.info(String.format("Circuit %s is closed", name));
+        }
+        state = State.CLOSED;
+        failures = 0;
+        probeInFlight = false;
+    }
+
+    /**
+     * Failure that doesn't indicate not available endpoint (for example 404 or request aborted by deadline) is neutral :
+     * it releases the probe, but state and consecutive failures are not changed
+     *
+     * @return CircuitOpenException if the failure opened the circuit, otherwise the failure itself
+     */
+    public synchronized RuntimeException onFailure(RuntimeException e) {
+        if (!isEndpointFailure(e)) {
+            onAborted();
+            return e;
+        }
+        failures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0 && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + cooldown;
+            logger.warn(String.format("Circuit %s is open for %s sec after %s consecutive failures", name, cooldown / 1000, failures));
+            return new CircuitOpenException(String.format("Circuit %s is open : %s", name, e.getMessage()), cooldown, e);
+        }
+        return e;
+    }
+
+    /**
+     * Request was aborted, for example by deadline of the caller, its result is not known.
+     * If it was the probe, next request is sent as probe
+     */
+    public synchronized void onAborted() {
+        probeInFlight = false;
+    }
+
+    private static boolean isEndpointFailure(RuntimeException e) {
+        if (e instanceof RestStatusException) {
+            int status = ((RestStatusException) e).getResponse().getStatusCode();
+            return status >= 500 || status == 429;
+        }
+        //failure to parse response is caused by the response, not by the endpoint
+        return HTTPUtils.isTransportFailure(e);
+    }
+}
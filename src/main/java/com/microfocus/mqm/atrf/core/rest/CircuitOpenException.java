@@ -0,0 +1,60 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+/**
+ * Thrown without sending the request, if circuit of its endpoint is open
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final long remainingOpenTime;
+
+    public CircuitOpenException(String message, long remainingOpenTime) {
+        super(message);
+        this.remainingOpenTime = remainingOpenTime;
+    }
+
+    /**
+     * @param cause failure that opened the circuit
+     */
+    public CircuitOpenException(String message, long remainingOpenTime, Throwable cause) {
+        super(message, cause);
+        this.remainingOpenTime = remainingOpenTime;
+    }
+
+    /**
+     * @return time in ms until the circuit allows probe request
+     */
+    public long getRemainingOpenTime() {
+        return remainingOpenTime;
+    }
+
+    /**
+     * @return CircuitOpenException that is the exception or its cause, null if not found
+     */
+    public static CircuitOpenException find(Throwable e) {
+        while (e != null) {
+            if (e instanceof CircuitOpenException) {
+                return (CircuitOpenException) e;
+            }
+            e = e.getCause();
+        }
+        return null;
+    }
+}
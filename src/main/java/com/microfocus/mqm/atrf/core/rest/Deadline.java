@@ -0,0 +1,119 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Deadline of the work that is done on behalf of one unit, for example a bulk. Deadline is kept per thread.
+ * RestConnector limits timeouts of each request by remaining time and fails the request if deadline is passed,
+ * so retries, relogins and circuit breaker pauses of the request also end by the deadline.
+ * Tasks that are submitted to other threads are wrapped by {@link #propagate(Callable)}, so they have the same deadline,
+ * and awaited by {@link #await(Future)}, that cancels the task if deadline is passed.
+ */
+public class Deadline {
+
+    public static final long NONE = 0;
+
+    private static final ThreadLocal<Long> deadline = new ThreadLocal<>();
+
+    /**
+     * @param timeout in ms, 0 or negative - no deadline
+     * @return deadline time, NONE if timeout is not defined
+     */
+    public static long after(long timeout) {
+        return timeout > 0 ? System.currentTimeMillis() + timeout : NONE;
+    }
+
+    /**
+     * Runs the operation on the current thread with deadline, nested deadline doesn't extend outer one
+     *
+     * @param until deadline time, NONE - the operation runs with outer deadline, if defined
+     */
+    public static <T> T call(long until, Supplier<T> operation) {
+        Long outer = deadline.get();
+        if (until != NONE) {
+            deadline.set(outer != null ? Math.min(outer, until) : until);
+        }
+        try {
+            return operation.get();
+        } finally {
+            if (outer == null) {
+                deadline.remove();
+            } else {
+                deadline.set(outer);
+            }
+        }
+    }
+
+    /**
+     * @return remaining time in ms, Long.MAX_VALUE if deadline is not defined
+     */
+    public static long getRemaining() {
+        Long until = deadline.get();
+        return until == null ? Long.MAX_VALUE : until - System.currentTimeMillis();
+    }
+
+    /**
+     * @param operation description of the operation for error message
+     * @throws DeadlineExceededException if deadline is passed
+     */
+    public static void check(String operation) {
+        if (getRemaining() <= 0) {
+            throw new DeadlineExceededException("Deadline is exceeded before " + operation);
+        }
+    }
+
+    /**
+     * @return task that runs with deadline of the current thread
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        Long until = deadline.get();
+        if (until == null) {
+            return task;
+        }
+        return () -> {
+            deadline.set(until);
+            try {
+                return task.call();
+            } finally {
+                deadline.remove();
+            }
+        };
+    }
+
+    /**
+     * Waits for the task up to deadline of the current thread
+     *
+     * @throws DeadlineExceededException if deadline is passed, the task is cancelled
+     */
+    public static <T> T await(Future<T> future) throws InterruptedException, ExecutionException {
+        long remaining = getRemaining();
+        if (remaining == Long.MAX_VALUE) {
+            return future.get();
+        }
+        try {
+            return future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new DeadlineExceededException("Deadline is exceeded while waiting for concurrent request");
+        }
+    }
+}
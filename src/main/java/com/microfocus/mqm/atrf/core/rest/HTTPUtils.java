@@ -17,8 +17,20 @@
 
 package com.microfocus.mqm.atrf.core.rest;
 
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.MalformedChunkCodingException;
+import org.apache.http.NoHttpResponseException;
+
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
+import java.net.SocketException;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 
 /**
  */
@@ -27,10 +39,30 @@ public class HTTPUtils {
     public static String HEADER_APPLICATION_JSON = "application/json";
     public static String HEADER_APPLICATION_XML = "application/xml";
     public static String HEADER_CONTENT_TYPE = "Content-Type";
+    public static String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static String GZIP_ENCODING = "gzip";
 
     public static String UTF8 = "UTF-8";
 
 
+    /**
+     * Transport failure : connection was not established, broken or timed out, or response was not received completely.
+     * Other IOExceptions, for example failure to parse response body, are not transport failures, they fail again if repeated
+     *
+     * @param e IOException or exception caused by it
+     */
+    public static boolean isTransportFailure(Throwable e) {
+        Throwable cause = e instanceof IOException ? e : e.getCause();
+        return cause instanceof SocketException //including ConnectException and connection reset
+                || cause instanceof InterruptedIOException //including socket, connect and connection pool timeouts
+                || cause instanceof NoHttpResponseException
+                || cause instanceof ConnectionClosedException
+                || cause instanceof MalformedChunkCodingException
+                || cause instanceof EOFException
+                || cause instanceof UnknownHostException
+                || cause instanceof SSLException;
+    }
+
     public static String encodeParam(String param) {
         String ret;
 
@@ -42,4 +74,32 @@ public class HTTPUtils {
 
         return ret;
     }
+
+    /**
+     * Converts url to URI, characters that are not allowed in URI path and query (for example {}[] of ALM queries)
+     * are percent-encoded, already encoded parts are kept as is
+     */
+    public static URI toUri(String url) {
+        int schemeEnd = url.indexOf("://");
+        int pathStart = schemeEnd < 0 ? 0 : url.indexOf('/', schemeEnd + 3);
+        if (pathStart < 0) {
+            return URI.create(url);
+        }
+
+        StringBuilder sb = new StringBuilder(url.length()).append(url, 0, pathStart);
+        for (int i = pathStart; i < url.length(); ) {
+            int c = url.codePointAt(i);
+            if (c <= 0x20 || c >= 0x7f || NOT_ALLOWED_URI_CHARS.indexOf(c) >= 0) {
+                for (byte b : new String(Character.toChars(c)).getBytes(StandardCharsets.UTF_8)) {
+                    sb.append('%').append(String.format("%02X", b & 0xff));
+                }
+            } else {
+                sb.append((char) c);
+            }
+            i += Character.charCount(c);
+        }
+        return URI.create(sb.toString());
+    }
+
+    private static final String NOT_ALLOWED_URI_CHARS = "\"<>\\^`{|}[]";
 }
@@ -0,0 +1,235 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide pool of keep-alive connections, shared by all RestConnector instances.
+ * Connections are kept per route (host:port), idle connections are evicted in background.
+ */
+public class HttpConnectionPool {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final int MAX_CONNECTIONS_DEFAULT = 20;
+    public static final int MAX_CONNECTIONS_PER_ROUTE_DEFAULT = 5;
+    public static final int IDLE_CONNECTION_TIMEOUT_DEFAULT = 60;//sec
+    public static final int KEEP_ALIVE_DEFAULT = 30;//sec
+
+    private static int maxConnections = MAX_CONNECTIONS_DEFAULT;
+    private static int maxConnectionsPerRoute = MAX_CONNECTIONS_PER_ROUTE_DEFAULT;
+    private static int idleConnectionTimeout = IDLE_CONNECTION_TIMEOUT_DEFAULT;
+    private static int keepAlive = KEEP_ALIVE_DEFAULT;
+
+    private static PoolingHttpClientConnectionManager connectionManager;
+    private static CloseableHttpClient httpClient;
+    private static Map<String, RouteStatistics> routeStatistics = new TreeMap<>();
+
+    /**
+     * @param maxConnections         total number of connections in the pool
+     * @param maxConnectionsPerRoute number of connections to the same host:port
+     * @param idleConnectionTimeout  in seconds, connection that is idle longer is closed
+     * @param keepAlive              in seconds, how long to keep connection if server doesn't send Keep-Alive timeout
+     */
+    public static synchronized void configure(int maxConnections, int maxConnectionsPerRoute, int idleConnectionTimeout, int keepAlive) {
+        HttpConnectionPool.maxConnections = maxConnections;
+        HttpConnectionPool.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        HttpConnectionPool.idleConnectionTimeout = idleConnectionTimeout;
+        HttpConnectionPool.keepAlive = keepAlive;
+
+        //pool will be recreated with new settings on next request
+        shutdown();
+    }
+
+    public static synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                    .build();
+            connectionManager = new StatisticsConnectionManager(socketFactoryRegistry);
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+            //cookies are handled by RestConnector per session, so client itself is stateless and can be shared
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy(new KeepAliveStrategy())
+                    .evictExpiredConnections()
+                    .evictIdleConnections(idleConnectionTimeout, TimeUnit.SECONDS)
+                    .disableCookieManagement()
+                    .disableContentCompression()
+                    //only immediate resend on stale connection, failed requests are retried with backoff by RetryPolicy
+                    .setRetryHandler(new DefaultHttpRequestRetryHandler(1, false))
+                    .useSystemProperties()
+                    .build();
+        }
+        return httpClient;
+    }
+
+    public static synchronized void shutdown() {
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close connection pool : " + e.getMessage());
+            }
+            httpClient = null;
+            connectionManager = null;
+        }
+    }
+
+    /**
+     * @return current statistics of the pool per route (host:port) : leased, pending and available connections
+     */
+    public static synchronized Map<String, PoolStats> getRouteStats() {
+        Map<String, PoolStats> stats = new TreeMap<>();
+        if (connectionManager != null) {
+            for (HttpRoute route : connectionManager.getRoutes()) {
+                stats.put(route.getTargetHost().toHostString(), connectionManager.getStats(route));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Logs current leased, pending, available and max connections of each route together with peaks since start,
+     * so pool exhaustion is visible without debug logging. After shutdown only the peaks are logged
+     */
+    public static synchronized void logStatistics() {
+        for (Map.Entry<String, RouteStatistics> entry : routeStatistics.entrySet()) {
+            RouteStatistics stats = entry.getValue();
+            String peaks = String.format("%s requests, max leased %s, max pending %s", stats.requests, stats.maxLeased, stats.maxPending);
+            if (connectionManager != null) {
+                PoolStats current = connectionManager.getStats(stats.route);
+                logger.info(String.format("Connection pool %s : leased %s, pending %s, available %s, max %s ; %s",
+                        entry.getKey(), current.getLeased(), current.getPending(), current.getAvailable(), current.getMax(), peaks));
+            } else {
+                logger.info(String.format("Connection pool %s : %s", entry.getKey(), peaks));
+            }
+        }
+        if (connectionManager != null && !routeStatistics.isEmpty()) {
+            PoolStats total = connectionManager.getTotalStats();
+            logger.info(String.format("Connection pool total : leased %s, pending %s, available %s, max %s",
+                    total.getLeased(), total.getPending(), total.getAvailable(), total.getMax()));
+        }
+    }
+
+    private static synchronized void recordRouteStats(HttpRoute route, PoolStats stats) {
+        String key = route.getTargetHost().toHostString();
+        RouteStatistics routeStats = routeStatistics.get(key);
+        if (routeStats == null) {
+            routeStats = new RouteStatistics(route);
+            routeStatistics.put(key, routeStats);
+        }
+        routeStats.requests++;
+        routeStats.maxLeased = Math.max(routeStats.maxLeased, stats.getLeased());
+        routeStats.maxPending = Math.max(routeStats.maxPending, stats.getPending());
+        logger.debug(String.format("Connection pool %s : leased %s, pending %s, available %s", key, stats.getLeased(), stats.getPending(), stats.getAvailable()));
+    }
+
+    private static class RouteStatistics {
+        final HttpRoute route;
+        long requests;
+        int maxLeased;
+        int maxPending;
+
+        RouteStatistics(HttpRoute route) {
+            this.route = route;
+        }
+    }
+
+    /**
+     * Samples route statistics each time a connection is leased from the pool
+     */
+    private static class StatisticsConnectionManager extends PoolingHttpClientConnectionManager {
+
+        StatisticsConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry) {
+            super(socketFactoryRegistry);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(final HttpRoute route, Object state) {
+            final ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    HttpClientConnection connection = request.get(timeout, tunit);
+                    recordRouteStats(route, getStats(route));
+                    return connection;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * Uses Keep-Alive timeout sent by server, otherwise configured keep alive
+     */
+    private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement he = it.nextElement();
+                if (he.getValue() != null && he.getName().equalsIgnoreCase("timeout")) {
+                    try {
+                        return Long.parseLong(he.getValue()) * 1000;
+                    } catch (NumberFormatException ignore) {
+                        //use configured value
+                    }
+                }
+            }
+            return keepAlive * 1000L;
+        }
+    }
+}
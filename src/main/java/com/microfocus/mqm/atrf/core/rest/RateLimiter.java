@@ -0,0 +1,152 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide token bucket rate limiters of RestConnector requests, per host with separate read (GET) and write buckets.
+ * Limiter is shared by all threads and pairs that send requests to the host, so together they use the whole allowance without exceeding it.
+ * Bucket holds up to one second of requests, so short bursts are allowed. Requests that don't get a token wait in the order of arrival.
+ */
+public class RateLimiter {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private static final Map<String, RateLimiter> limiters = new TreeMap<>();
+
+    private final String name;
+    private double rate;//requests per second
+    private double tokens;
+    private long lastRefill;
+    private long requests;
+    private long delayedRequests;
+    private long totalDelay;//ms
+
+    private RateLimiter(String name, double rate) {
+        this.name = name;
+        this.rate = rate;
+        this.tokens = rate;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Sets rate limits of the host of the url. If the host is configured several times (by several pairs), the lowest limit is used
+     *
+     * @param url   url of the server
+     * @param read  GET requests per second, 0 - unlimited
+     * @param write POST, PUT and DELETE requests per second, 0 - unlimited
+     */
+    public static void configure(String url, int read, int write) {
+        String host = getHost(url);
+        configure(host + " read", read);
+        configure(host + " write", write);
+    }
+
+    private static synchronized void configure(String key, int rate) {
+        if (rate <= 0) {
+            return;
+        }
+        RateLimiter limiter = limiters.get(key);
+        if (limiter == null) {
+            limiters.put(key, new RateLimiter(key, rate));
+            logger.info(String.format("Rate limit %s : %s requests per second", key, rate));
+        } else if (rate < limiter.rate) {
+            logger.warn(String.format("Rate limit %s is configured several times, lowest limit of %s requests per second is used", key, rate));
+            limiter.setRate(rate);
+        }
+    }
+
+    /**
+     * Waits for a token of the request
+     *
+     * @throws DeadlineExceededException if the token is not available before deadline of the thread
+     */
+    public static void acquire(String url, String method) {
+        RateLimiter limiter;
+        synchronized (RateLimiter.class) {
+            if (limiters.isEmpty()) {
+                return;
+            }
+            limiter = limiters.get(getHost(url) + ("GET".equals(method) ? " read" : " write"));
+        }
+        if (limiter != null) {
+            limiter.acquire();
+        }
+    }
+
+    private void acquire() {
+        long delay = reserve(Deadline.getRemaining());
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for rate limit " + name, e);
+            }
+        }
+    }
+
+    /**
+     * @return delay in ms until the reserved token is available
+     */
+    private synchronized long reserve(long maxDelay) {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+
+        //negative balance is the queue of waiting requests
+        long delay = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1000 / rate);
+        if (delay >= maxDelay) {
+            throw new DeadlineExceededException("Deadline is exceeded while waiting for rate limit " + name);
+        }
+        tokens--;
+        requests++;
+        if (delay > 0) {
+            delayedRequests++;
+            totalDelay += delay;
+        }
+        return delay;
+    }
+
+    private synchronized void setRate(double rate) {
+        this.rate = rate;
+        this.tokens = Math.min(tokens, rate);
+    }
+
+    private static String getHost(String url) {
+        URI uri = HTTPUtils.toUri(url);
+        return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    public static synchronized void logStatistics() {
+        for (RateLimiter limiter : limiters.values()) {
+            synchronized (limiter) {
+                logger.info(String.format("Rate limit %s : %s requests, %s delayed, total delay %s sec",
+                        limiter.name, limiter.requests, limiter.delayedRequests, limiter.totalDelay / 1000));
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes request body directly to the connection output stream.
+ * May be called more than once for the same request (for example, resend after relogin), so it must produce the same content each time.
+ */
+public interface RequestBodyWriter {
+
+    void writeTo(OutputStream out) throws IOException;
+}
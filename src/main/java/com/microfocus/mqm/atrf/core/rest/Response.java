@@ -28,6 +28,7 @@ public class Response {
     
     private Map<String, ? extends Iterable<String>> responseHeaders = null;
     private String responseData = null;
+    private Object responseObject = null;
     private Exception failure = null;
     private int statusCode = 0;
     
@@ -80,6 +81,21 @@ public class Response {
         this.responseData = responseData;
     }
     
+    /**
+     * @return the object parsed from response body by ResponseBodyReader, in this case responseData is empty
+     */
+    public Object getResponseObject() {
+        return responseObject;
+    }
+    
+    /**
+     * @param responseObject
+     *            the responseObject to set
+     */
+    public void setResponseObject(Object responseObject) {
+        this.responseObject = responseObject;
+    }
+    
     /**
      * @return the failure if the access to the requested url somehow failed, such as a 404 or 500
      *         if no such failure occured this method returns null.
@@ -0,0 +1,37 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads successful response body directly from the connection stream, instead of materializing it as String.
+ *
+ * @param <T> type of the object that is read from the body
+ */
+public interface ResponseBodyReader<T> {
+
+    /**
+     * @param body    decompressed response body, it is closed by the caller
+     * @param charset of the body, defined by Content-Type of the response, default is UTF-8
+     */
+    T read(InputStream body, Charset charset) throws IOException;
+}
@@ -16,40 +16,202 @@
 
 package com.microfocus.mqm.atrf.core.rest;
 
+import com.microfocus.mqm.atrf.core.sync.DaemonThreadFactory;
 import com.microfocus.mqm.atrf.octane.services.OctaneRestConstants;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.*;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.URL;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 
 public class RestConnector {
 
 
     static final Logger logger = LogManager.getLogger();
-    protected Map<String, String> cookies = new HashMap<>();
+    protected volatile Map<String, String> cookies = new ConcurrentHashMap<>();
 
     private SupportRelogin supportRelogin;
+
+    //session renewal : login runs under the lock, one at a time
+    private final Object sessionLock = new Object();
+    private volatile boolean sessionRenewing;
+    private volatile long sessionGeneration;
+    private volatile long sessionRefreshTime;//0 - session expiration is not known
+    private volatile long cookieExpiry;//earliest expiration of cookies received at last login, 0 - not known
+    private long sessionTtl;//ms, 0 - not defined
+    private static final long SESSION_REFRESH_MARGIN = 60 * 1000;
+    private static final long SESSION_REFRESH_RETRY = 60 * 1000;
     private String baseUrl;
+    private boolean gzipResponses;
     private static String proxyHost;
     private static int proxyPort;
 
+    public static final int CONNECT_TIMEOUT_DEFAULT = 30;//sec
+    public static final int READ_TIMEOUT_DEFAULT = 120;//sec
+    private static int connectTimeout = CONNECT_TIMEOUT_DEFAULT * 1000;
+    private static int readTimeout = READ_TIMEOUT_DEFAULT * 1000;
+    //aborts requests in flight, when deadline of their thread is exceeded
+    private static final ScheduledExecutorService deadlineTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("rest-deadline"));
+
     public static void setProxy(String host, int port) {
         proxyHost = host;
         proxyPort = port;
     }
 
+    /**
+     * @param connectTimeout in seconds, timeout of establishing connection
+     * @param readTimeout    in seconds, maximum time of inactivity while waiting for response data
+     */
+    public static void setTimeouts(int connectTimeout, int readTimeout) {
+        RestConnector.connectTimeout = connectTimeout * 1000;
+        RestConnector.readTimeout = readTimeout * 1000;
+    }
+
+    /**
+     * @param sessionTtl in seconds, lifetime of login session on the server, 0 if session expiration is known only from cookies.
+     *                   The session is renewed shortly before it expires, so requests do not fail on 401
+     */
+    public void setSessionTtl(int sessionTtl) {
+        this.sessionTtl = sessionTtl * 1000L;
+    }
+
+    /**
+     * Single-flight login : login runs under session lock, concurrent requests wait for it
+     * instead of being sent with cookies that are cleared by the login
+     *
+     * @param login logs in by this connector
+     * @return result of the login
+     */
+    public boolean renewSession(BooleanSupplier login) {
+        synchronized (sessionLock) {
+            return renewSession(login, sessionGeneration);
+        }
+    }
+
+    /**
+     * @param failedGeneration generation of the session, that is found expired.
+     *                         If the session is already renewed by other request, login is not done again
+     * @return true if there is a session newer than failedGeneration
+     */
+    private boolean renewSession(BooleanSupplier login, long failedGeneration) {
+        synchronized (sessionLock) {
+            if (failedGeneration != sessionGeneration) {
+                return true;
+            }
+            sessionRenewing = true;
+            try {
+                long start = System.currentTimeMillis();
+                cookieExpiry = 0;
+                boolean result = login.getAsBoolean();
+                if (result) {
+                    sessionRefreshTime = computeSessionRefreshTime(start);
+                    sessionGeneration++;
+                }
+                return result;
+            } finally {
+                sessionRenewing = false;
+            }
+        }
+    }
+
+    /**
+     * Session expires at the earliest of configured ttl and cookie expiration, it is refreshed
+     * a minute before, or a tenth of its lifetime for short sessions
+     */
+    private long computeSessionRefreshTime(long loginTime) {
+        long expiry = cookieExpiry;
+        if (sessionTtl > 0 && (expiry == 0 || loginTime + sessionTtl < expiry)) {
+            expiry = loginTime + sessionTtl;
+        }
+        if (expiry == 0) {
+            return 0;
+        }
+        return expiry - Math.min(SESSION_REFRESH_MARGIN, (expiry - loginTime) / 10);
+    }
+
+    /**
+     * Waits for session renewal in progress, and renews the session if it is about to expire.
+     * Requests sent by the login itself pass through
+     *
+     * @return generation of the session, the request is sent with
+     */
+    private long prepareSession() {
+        if (Thread.holdsLock(sessionLock)) {
+            return sessionGeneration;
+        }
+        if (supportRelogin != null && isSessionRefreshDue()) {
+            synchronized (sessionLock) {
+                //checked again under the lock : concurrent requests that found the session expiring wait here,
+                //and do not login again after the session was renewed, or after renewal failed and is postponed
+                if (isSessionRefreshDue()) {
+                    try {
+                        logger.info(String.format("%s : session is about to expire, renewing", baseUrl));
+                        if (!renewSession(supportRelogin::relogin, sessionGeneration)) {
+                            postponeSessionRefresh("login failed");
+                        }
+                    } catch (Exception e) {
+                        postponeSessionRefresh(e.getMessage());
+                    }
+                }
+            }
+        } else if (sessionRenewing) {
+            synchronized (sessionLock) {
+                //wait for renewal in progress
+            }
+        }
+        return sessionGeneration;
+    }
+
+    private boolean isSessionRefreshDue() {
+        long refreshTime = sessionRefreshTime;
+        return refreshTime > 0 && System.currentTimeMillis() >= refreshTime;
+    }
+
+    /**
+     * Current session is used until it fails, renewal is tried again later
+     */
+    private void postponeSessionRefresh(String reason) {
+        logger.warn(String.format("%s : failed to renew session : %s", baseUrl, reason));
+        sessionRefreshTime = System.currentTimeMillis() + SESSION_REFRESH_RETRY;
+    }
+
     /**
      * @return the cookies
      */
@@ -66,17 +228,34 @@ public class RestConnector {
 
     public Response httpPut(String url, String data, Map<String, String> headers) {
 
-        return doHttp("PUT", url, null, data, headers);
+        return doHttp("PUT", url, null, toEntity(data), headers, null);
     }
 
     public Response httpPost(String url, String data, Map<String, String> headers) {
 
-        return doHttp("POST", url, null, data, headers);
+        return doHttp("POST", url, null, toEntity(data), headers, null);
+    }
+
+    /**
+     * Post data that is produced by bodyWriter while sending, with chunked transfer encoding.
+     * The body is never held in memory as a whole.
+     */
+    public Response httpPost(String url, RequestBodyWriter bodyWriter, Map<String, String> headers) {
+
+        return httpPost(url, bodyWriter, headers, false);
+    }
+
+    /**
+     * @param gzip if true, the body is compressed with gzip (Content-Encoding: gzip)
+     */
+    public Response httpPost(String url, RequestBodyWriter bodyWriter, Map<String, String> headers, boolean gzip) {
+
+        return doHttp("POST", url, null, new StreamingEntity(bodyWriter, gzip), headers, null);
     }
 
     public Response httpDelete(String url, Map<String, String> headers) {
 
-        return doHttp("DELETE", url, null, null, headers);
+        return doHttp("DELETE", url, null, null, headers, null);
     }
 
 
@@ -87,24 +266,69 @@ public class RestConnector {
 
     public Response httpGet(String url, List<String> queryParams, Map<String, String> headers) {
 
-        return doHttp("GET", url, queryParams, null, headers);
+        return doHttp("GET", url, queryParams, null, headers, null);
+    }
+
+    /**
+     * Get, successful response body is passed to bodyReader directly from the connection, without reading it to String
+     *
+     * @return the object returned by bodyReader
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T httpGet(String url, List<String> queryParams, Map<String, String> headers, ResponseBodyReader<T> bodyReader) {
+
+        return (T) doHttp("GET", url, queryParams, null, headers, bodyReader).getResponseObject();
     }
 
     /**
+     * Failed request is retried according to RetryPolicy.
+     * Each attempt passes circuit breaker of the endpoint, if it is open the request fails by CircuitOpenException.
+     * Attempts and delays between them are limited by Deadline of the current thread, each attempt waits for RateLimiter of the host
+     *
      * @param type        of the http operation: get post put delete
      * @param url         to work on
      * @param queryParams
      * @param data        to write, if a writable operation
      * @param headers     to use in the request
+     * @param bodyReader  if defined, successful response body is read by it to response object
      * @return http response
      */
     private Response doHttp(
             String type,
             String url,
             List<String> queryParams,
-            String data,
-            Map<String, String> headers) {
-        return doHttp(type, url, queryParams, data, headers, false);
+            AbstractHttpEntity data,
+            Map<String, String> headers,
+            ResponseBodyReader<?> bodyReader) {
+        CircuitBreaker breaker = CircuitBreaker.get(baseUrl, CircuitBreaker.classify(type, url));
+        RetryPolicy.onRequest(baseUrl);
+        for (int attempt = 1; ; attempt++) {
+            Deadline.check(type + " " + baseUrl + url);
+            RateLimiter.acquire(baseUrl, type);
+            breaker.acquire();
+            try {
+                Response response = doHttp(type, url, queryParams, data, headers, bodyReader, false);
+                breaker.onSuccess();
+                return response;
+            } catch (DeadlineExceededException e) {
+                //request was aborted by deadline of the caller, it tells nothing about the endpoint and is not retried
+                breaker.onAborted();
+                throw e;
+            } catch (RuntimeException attemptFailure) {
+                RuntimeException e = breaker.onFailure(attemptFailure);
+                long delay = RetryPolicy.getRetryDelay(type, baseUrl, e, attempt);
+                if (delay < 0 || delay >= Deadline.getRemaining()) {
+                    throw e;
+                }
+                logger.warn(String.format("%s %s%s : attempt %s failed, retrying in %s ms", type, baseUrl, url, attempt, delay));
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
     }
 
     /**
@@ -113,6 +337,7 @@ public class RestConnector {
      * @param queryParams
      * @param data         to write, if a writable operation
      * @param headers      to use in the request
+     * @param bodyReader   if defined, successful response body is read by it to response object
      * @param afterRelogin if equal to false and received 401 and supportRelogin is exist - trial to relogin will be done
      * @return http response
      */
@@ -120,8 +345,9 @@ public class RestConnector {
             String type,
             String url,
             List<String> queryParams,
-            String data,
+            AbstractHttpEntity data,
             Map<String, String> headers,
+            ResponseBodyReader<?> bodyReader,
             boolean afterRelogin) {
 
 
@@ -136,33 +362,36 @@ public class RestConnector {
             url += StringUtils.join(queryParams, "&");
         }
 
+        long generation = prepareSession();
         long start = System.currentTimeMillis();
         String fullUrl = baseUrl + url;
         try {
 
-            HttpURLConnection con;
-            if (StringUtils.isEmpty(proxyHost)) {
-                con = (HttpURLConnection) new URL(fullUrl).openConnection();
-            } else {
-                try {
-                    Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort));
-                    con = (HttpURLConnection) new URL(fullUrl).openConnection(proxy);
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to define connection with proxy parameters");
-                }
-            }
+            HttpRequestBase request = createRequest(type, fullUrl);
+            request.setConfig(createRequestConfig());
 
-            con.setRequestMethod(type);
             String cookieString = getCookieString();
 
             if (headers != null) {
                 headers.put(OctaneRestConstants.CLIENTTYPE_HEADER, OctaneRestConstants.CLIENTTYPE_INTERNAL);
             }
 
-            prepareHttpRequest(con, headers, data, cookieString);
+            prepareHttpRequest(request, headers, data, cookieString);
 
-            con.connect();
-            Response ret = retrieveHtmlResponse(con);
+            Response ret;
+            ScheduledFuture<?> abort = scheduleAbort(request);
+            try (CloseableHttpResponse httpResponse = HttpConnectionPool.getHttpClient().execute(request)) {
+                ret = retrieveHtmlResponse(httpResponse, request, bodyReader);
+            } catch (IOException | RuntimeException e) {
+                if (request.isAborted()) {
+                    throw new DeadlineExceededException(String.format("Deadline is exceeded while %s %s", type, fullUrl));
+                }
+                throw e;
+            } finally {
+                if (abort != null) {
+                    abort.cancel(false);
+                }
+            }
             long end = System.currentTimeMillis();
             String msg = String.format("%s %s:%s , total time %s ms", ret.getStatusCode(), type, fullUrl, end - start);
             logger.info(msg);
@@ -177,10 +406,11 @@ public class RestConnector {
         } catch (RestStatusException e) {
             if ((e.getResponse().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) ||
                     (e.getResponse().getStatusCode() == 0 && e.getResponse().getResponseData().equals("Error writing to server"))) {
-                if (!afterRelogin && supportRelogin != null) {
+                if (!afterRelogin && supportRelogin != null && !Thread.holdsLock(sessionLock)) {
                     boolean reloginResult = false;
                     try {
-                        reloginResult = supportRelogin.relogin();
+                        //if session was renewed by other request, the request is resent with the new session
+                        reloginResult = renewSession(supportRelogin::relogin, generation);
                         String msg = String.format("Received status %s. Relogin succeeded.", e.getResponse().getStatusCode());
                         logger.warn(msg);
                     } catch (Exception ex) {
@@ -189,11 +419,15 @@ public class RestConnector {
                     }
 
                     if (reloginResult) {
-                        return doHttp(type, url, queryParams, data, headers, true);
+                        return doHttp(type, url, queryParams, data, headers, bodyReader, true);
                     }
                 }
             }
             throw e;//rethrow
+        } catch (DeadlineExceededException e) {
+            long end = System.currentTimeMillis();
+            logger.error(String.format("%s %s:%s , total time %s ms, %s", "ERR", type, fullUrl, end - start, e.getMessage()));
+            throw e;
         } catch (Exception e) {
             long end = System.currentTimeMillis();
             String msg = String.format("%s %s:%s , total time %s ms, %s", "ERR", type, fullUrl, end - start, e.getMessage());
@@ -203,23 +437,78 @@ public class RestConnector {
     }
 
     /**
-     * @param con          to set the headers and bytes in
+     * Socket timeout limits only inactivity, so response that keeps trickling would not be limited by the deadline.
+     * The request is aborted when deadline of the current thread is exceeded
+     *
+     * @return scheduled abort, null if the thread has no deadline
+     */
+    private static ScheduledFuture<?> scheduleAbort(HttpRequestBase request) {
+        long remaining = Deadline.getRemaining();
+        if (remaining >= Integer.MAX_VALUE) {
+            return null;
+        }
+        return deadlineTimer.schedule(request::abort, Math.max(remaining, 1), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Timeouts are limited by remaining time of the deadline, if defined
+     */
+    private static RequestConfig createRequestConfig() {
+        long remaining = Math.max(Deadline.getRemaining(), 1);
+        RequestConfig.Builder builder = RequestConfig.custom()
+                .setConnectTimeout((int) Math.min(connectTimeout, remaining))
+                .setSocketTimeout((int) Math.min(readTimeout, remaining));
+        if (remaining < Integer.MAX_VALUE) {
+            //waiting for connection from the pool
+            builder.setConnectionRequestTimeout((int) remaining);
+        }
+        if (StringUtils.isNotEmpty(proxyHost)) {
+            builder.setProxy(new HttpHost(proxyHost, proxyPort));
+        }
+        return builder.build();
+    }
+
+    private static AbstractHttpEntity toEntity(String data) {
+        if ((data == null) || data.isEmpty()) {
+            return null;
+        }
+        return new ByteArrayEntity(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private HttpRequestBase createRequest(String type, String fullUrl) {
+        URI uri = HTTPUtils.toUri(fullUrl);
+        switch (type) {
+            case "GET":
+                return new HttpGet(uri);
+            case "POST":
+                return new HttpPost(uri);
+            case "PUT":
+                return new HttpPut(uri);
+            case "DELETE":
+                return new HttpDelete(uri);
+            default:
+                throw new IllegalArgumentException("Unsupported http method " + type);
+        }
+    }
+
+    /**
+     * @param request      to set the headers and bytes in
      * @param headers      to use in the request, such as content-TYPE
      * @param data         the actual data to post in the connection.
      * @param cookieString the cookies data from clientside, such as lwsso, qcsession, jsession etc..
      */
     private void prepareHttpRequest(
-            HttpURLConnection con,
+            HttpRequestBase request,
             Map<String, String> headers,
-            String data,
-            String cookieString) throws IOException {
+            AbstractHttpEntity data,
+            String cookieString) {
 
         String contentType = null;
 
         //attach cookie information if such exists
         if ((cookieString != null) && !cookieString.isEmpty()) {
 
-            con.setRequestProperty("Cookie", cookieString);
+            request.setHeader("Cookie", cookieString);
         }
 
         //send data from headers
@@ -232,72 +521,104 @@ public class RestConnector {
                     contentType = header.getValue();
                     continue;
                 }
-                con.setRequestProperty(header.getKey(), header.getValue());
+                request.setHeader(header.getKey(), header.getValue());
             }
         }
 
-        //if there's data to attach to the request, it's handled here. note that if data exists, we take into account previously removed content-TYPE.
-        if ((data != null) && (!data.isEmpty())) {
-
-            con.setDoOutput(true);
+        if (gzipResponses) {
+            request.setHeader(HTTPUtils.HEADER_ACCEPT_ENCODING, HTTPUtils.GZIP_ENCODING);
+        }
 
-            //warning: if you add content-TYPE header then you MUST send information.. or receive error. so only do so if you're writing information...
-            if (contentType != null) {
-                con.setRequestProperty("Content-Type", contentType);
+        if (request instanceof HttpEntityEnclosingRequestBase) {
+            //if there's data to attach to the request, it's handled here. note that if data exists, we take into account previously removed content-TYPE.
+            //empty body is sent with Content-Length: 0, as some servers reject POST without length
+            HttpEntity entity;
+            if (data != null) {
+                //warning: if you add content-TYPE header then you MUST send information.. or receive error. so only do so if you're writing information...
+                if (contentType != null) {
+                    data.setContentType(contentType);
+                }
+                boolean gzip = data instanceof StreamingEntity && ((StreamingEntity) data).gzip;
+                entity = new CountingEntity(data, request, gzip);
+            } else {
+                entity = new ByteArrayEntity(new byte[0]);
             }
-
-            OutputStream out = con.getOutputStream();
-            out.write(data.getBytes());
-            out.flush();
-            out.close();
+            ((HttpEntityEnclosingRequestBase) request).setEntity(entity);
         }
     }
 
     /**
-     * @param con that already connected to it's url with an http request, and that should contain a
-     *            response for us to retrieve
+     * @param httpResponse that already received from server. Its body is fully consumed, so the connection is returned to the pool
+     * @param request      the response is received for
+     * @param bodyReader   if defined, successful response body is read by it to response object, instead of response data
      * @return a response from the server to the previously submitted http request
-     * @throws Exception
+     * @throws IOException
      */
-    private Response retrieveHtmlResponse(HttpURLConnection con) throws IOException {
+    private Response retrieveHtmlResponse(HttpResponse httpResponse, HttpRequestBase request, ResponseBodyReader<?> bodyReader) throws IOException {
 
         Response ret = new Response();
-
-        InputStream inputStream;
-        //select the source of the input bytes, first try "regular" input
-        try {
-            inputStream = con.getInputStream();
-        } catch (Exception e) {
-            /*if the connection to the server somehow failed, for example 404 or 500, con.getInputStream() will throw an exception, which we'll keep.
-            we'll also store the body of the exception page, in the response data. */
-            inputStream = con.getErrorStream();
-            ret.setFailure(e);
-            ret.setResponseData(e.getMessage());//set default error message
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        ret.setStatusCode(statusCode);
+
+        if (statusCode >= HttpStatus.SC_BAD_REQUEST) {
+            //keep the failure, the body of the error page is stored in the response data
+            String errorMsg = String.format("Server returned HTTP response code: %s", statusCode);
+            ret.setFailure(new IOException(errorMsg));
+            ret.setResponseData(errorMsg);//set default error message
+            bodyReader = null;
         }
 
-        //this actually takes the data from the previously decided stream (error or input) and stores it in a byte[] inside the response
-        if (inputStream != null) {
-            ByteArrayOutputStream container = new ByteArrayOutputStream();
+        HttpEntity entity = httpResponse.getEntity();
+        if (entity != null) {
+            readResponseBody(entity, request, bodyReader, ret);
+        } else if (ret.getResponseData() == null) {
+            ret.setResponseData("");
+        }
 
-            byte[] buf = new byte[1024];
-            int read;
-            while ((read = inputStream.read(buf, 0, 1024)) > 0) {
-                container.write(buf, 0, read);
+        Map<String, List<String>> headerFields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : httpResponse.getAllHeaders()) {
+            List<String> values = headerFields.get(header.getName());
+            if (values == null) {
+                values = new ArrayList<>();
+                headerFields.put(header.getName(), values);
             }
-
-            ret.setResponseData(container.toString());
+            values.add(header.getValue());
         }
+        ret.setResponseHeaders(headerFields);
 
-        try {
-            ret.setStatusCode(con.getResponseCode());
-        } catch (Exception e) {
-            ret.setStatusCode(0);
-        }
+        return ret;
+    }
 
+    /**
+     * Reads the body as text to response data, or by bodyReader to response object. gzip body is decompressed.
+     * Both wire and decompressed sizes are counted in TransferStatistics
+     */
+    private void readResponseBody(HttpEntity entity, HttpRequestBase request, ResponseBodyReader<?> bodyReader, Response ret) throws IOException {
+        ContentType contentType = ContentType.get(entity);
+        Charset charset = (contentType != null && contentType.getCharset() != null) ? contentType.getCharset() : StandardCharsets.UTF_8;
+        InputStream content = entity.getContent();
+        if (content == null || entity.getContentLength() == 0) {
+            EntityUtils.consume(entity);
+            TransferStatistics.recordReceived(request.getMethod(), request.getURI(), 0, 0);
+            ret.setResponseData("");
+            return;
+        }
 
-        ret.setResponseHeaders(con.getHeaderFields());
+        CountingInputStream wireStream = new CountingInputStream(content);
+        InputStream decodedStream = isGzip(entity.getContentEncoding()) ? new GZIPInputStream(wireStream) : wireStream;
+        try (CountingInputStream bodyStream = new CountingInputStream(decodedStream)) {
+            if (bodyReader != null) {
+                ret.setResponseObject(bodyReader.read(bodyStream, charset));
+                ret.setResponseData("");
+            } else {
+                ret.setResponseData(IOUtils.toString(bodyStream, charset));
+            }
+            TransferStatistics.recordReceived(request.getMethod(), request.getURI(), bodyStream.getByteCount(), wireStream.getByteCount());
+        }
+    }
 
-        return ret;/**/
+    private static boolean isGzip(Header contentEncoding) {
+        return contentEncoding != null && HTTPUtils.GZIP_ENCODING.equalsIgnoreCase(contentEncoding.getValue().trim());
     }
 
     private void updateCookies(Response response) {
@@ -315,8 +636,43 @@ public class RestConnector {
                     cookieValue = cookie.substring(equalIndex + 1, semicolonIndex);
                 }
                 cookies.put(cookieKey, cookieValue);
+                if (semicolonIndex != -1 && Thread.holdsLock(sessionLock)) {
+                    //cookies received at login define session expiration
+                    updateCookieExpiry(cookie.substring(semicolonIndex + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the earliest expiration of cookies received at login, by Max-Age or Expires attribute.
+     * Cookies that are already expired (deleted by server) are ignored
+     */
+    private void updateCookieExpiry(String attributes) {
+        long now = System.currentTimeMillis();
+        long expiry = 0;
+        for (String attribute : attributes.split(";")) {
+            String[] parts = attribute.trim().split("=", 2);
+            if (parts.length < 2) {
+                continue;
+            }
+            if (parts[0].equalsIgnoreCase("Max-Age")) {
+                try {
+                    expiry = now + Long.parseLong(parts[1].trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    //ignore
+                }
+                break;//Max-Age has precedence over Expires
+            } else if (parts[0].equalsIgnoreCase("Expires")) {
+                Date date = DateUtils.parseDate(parts[1].trim());
+                if (date != null) {
+                    expiry = date.getTime();
+                }
             }
         }
+        if (expiry > now && (cookieExpiry == 0 || expiry < cookieExpiry)) {
+            cookieExpiry = expiry;
+        }
     }
 
     private String getCookieString() {
@@ -337,7 +693,7 @@ public class RestConnector {
     }
 
     public void clearAll() {
-        cookies = new HashMap<>();
+        cookies = new ConcurrentHashMap<>();
     }
 
     /**
@@ -356,7 +712,92 @@ public class RestConnector {
         }
     }
 
+    /**
+     * @param gzipResponses if true, server is allowed to compress responses (Accept-Encoding: gzip), they are decompressed transparently
+     */
+    public void setGzipResponses(boolean gzipResponses) {
+        this.gzipResponses = gzipResponses;
+    }
+
     public void setSupportRelogin(SupportRelogin supportRelogin) {
         this.supportRelogin = supportRelogin;
     }
+
+    /**
+     * Entity that is written by RequestBodyWriter directly to the connection, length is unknown so it is sent in chunks.
+     * Content of the entity is produced again by the writer, if it is read as input stream
+     */
+    private static class StreamingEntity extends EntityTemplate {
+
+        private final boolean gzip;
+
+        StreamingEntity(RequestBodyWriter bodyWriter, boolean gzip) {
+            super(bodyWriter::writeTo);
+            this.gzip = gzip;
+            setChunked(true);
+        }
+    }
+
+    /**
+     * Counts the bytes of the wrapped body in TransferStatistics, and optionally compresses it with gzip
+     */
+    private static class CountingEntity extends HttpEntityWrapper {
+
+        private final HttpRequestBase request;
+        private final boolean gzip;
+
+        CountingEntity(HttpEntity wrappedEntity, HttpRequestBase request, boolean gzip) {
+            super(wrappedEntity);
+            this.request = request;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return gzip ? new BasicHeader(HTTP.CONTENT_ENCODING, HTTPUtils.GZIP_ENCODING) : super.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return gzip ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public boolean isChunked() {
+            return gzip || super.isChunked();
+        }
+
+        /**
+         * Content as it is sent, compressed body is produced in memory. Bytes read by the stream are not counted
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            if (!gzip) {
+                return super.getContent();
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+                super.writeTo(gzipStream);
+            }
+            return new ByteArrayInputStream(compressed.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            CountingOutputStream wireStream = new CountingOutputStream(outStream);
+            if (gzip) {
+                //closing gzip stream writes its trailer and the last chunk of the request
+                CountingOutputStream bodyStream = new CountingOutputStream(new GZIPOutputStream(wireStream));
+                try {
+                    super.writeTo(bodyStream);
+                } finally {
+                    bodyStream.close();
+                }
+                TransferStatistics.recordSent(request.getMethod(), request.getURI(), bodyStream.getByteCount(), wireStream.getByteCount());
+            } else {
+                super.writeTo(wireStream);
+                TransferStatistics.recordSent(request.getMethod(), request.getURI(), wireStream.getByteCount(), wireStream.getByteCount());
+            }
+        }
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.net.ssl.SSLException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Process wide retry policy of RestConnector requests.
+ * Request is retried if its failure is retryable for its method : GET, PUT and DELETE are retried on connection failures and retryable statuses,
+ * POST is not idempotent, so it is retried only if it was not processed : connection was not established or server declined it by POST retryable status.
+ * Delay before retry grows exponentially with full jitter, so clients that failed at the same time don't retry at the same time,
+ * Retry-After of 429 and 503 responses is honored.
+ * Retries to the same server are limited by retry budget : each request adds a part of retry to the budget and each retry takes one,
+ * so retries don't exceed configured percent of requests, also when many pairs are synced with the same server.
+ */
+public class RetryPolicy {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final int MAX_ATTEMPTS_DEFAULT = 4;
+    public static final int BASE_DELAY_DEFAULT = 1000;//ms
+    public static final int MAX_DELAY_DEFAULT = 30000;//ms
+    public static final int BUDGET_PERCENT_DEFAULT = 10;
+    public static final String STATUSES_DEFAULT = "408,429,500,502,503,504";
+    public static final String POST_STATUSES_DEFAULT = "429,503";
+
+    //retries that are allowed before requests fill the budget, also maximum balance of the budget
+    private static final double BUDGET_RESERVE = 10;
+    //longer Retry-After is not awaited, the request fails
+    private static final long RETRY_AFTER_MAX = 5 * 60 * 1000;
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private static volatile int maxAttempts = MAX_ATTEMPTS_DEFAULT;
+    private static volatile int baseDelay = BASE_DELAY_DEFAULT;
+    private static volatile int maxDelay = MAX_DELAY_DEFAULT;
+    private static volatile int budgetPercent = BUDGET_PERCENT_DEFAULT;
+    private static volatile Set<Integer> statuses = parseStatuses(STATUSES_DEFAULT);
+    private static volatile Set<Integer> postStatuses = parseStatuses(POST_STATUSES_DEFAULT);
+    private static final Map<String, RetryBudget> budgets = new TreeMap<>();
+
+    /**
+     * @param maxAttempts   number of attempts of request, including the first one
+     * @param baseDelay     in ms, delay before first retry is up to this value, next delays are doubled
+     * @param maxDelay      in ms, maximum delay between attempts
+     * @param budgetPercent retries to the same server don't exceed this percent of requests
+     * @param statuses      comma separated statuses, GET, PUT and DELETE are retried on them
+     * @param postStatuses  comma separated statuses, POST is retried on them
+     */
+    public static synchronized void configure(int maxAttempts, int baseDelay, int maxDelay, int budgetPercent, String statuses, String postStatuses) {
+        RetryPolicy.maxAttempts = maxAttempts;
+        RetryPolicy.baseDelay = baseDelay;
+        RetryPolicy.maxDelay = maxDelay;
+        RetryPolicy.budgetPercent = budgetPercent;
+        RetryPolicy.statuses = parseStatuses(statuses);
+        RetryPolicy.postStatuses = parseStatuses(postStatuses);
+    }
+
+    /**
+     * @param value comma separated http statuses
+     * @throws IllegalArgumentException if value contains not valid status
+     */
+    public static Set<Integer> parseStatuses(String value) {
+        Set<Integer> result = new HashSet<>();
+        for (String part : StringUtils.split(value, ",")) {
+            try {
+                int status = Integer.parseInt(part.trim());
+                if (status < 100 || status > 599) {
+                    throw new IllegalArgumentException("Not valid http status " + part.trim());
+                }
+                result.add(status);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not valid http status " + part.trim());
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Counts the request in retry budget of the server, called once per request, not per attempt
+     */
+    public static void onRequest(String server) {
+        getBudget(server).deposit(budgetPercent / 100.0);
+    }
+
+    /**
+     * @param method  of the request
+     * @param server  base url of the request, retry budget is kept per server
+     * @param failure failure of the attempt
+     * @param attempt number of failed attempt, starting from 1
+     * @return delay in ms before next attempt, or -1 if the request should not be retried
+     */
+    public static long getRetryDelay(String method, String server, Exception failure, int attempt) {
+        if (attempt >= maxAttempts || !isRetryable(method, failure)) {
+            return -1;
+        }
+
+        long delay = getBackoff(attempt);
+        long retryAfter = getRetryAfter(failure);
+        if (retryAfter > RETRY_AFTER_MAX) {
+            logger.warn(String.format("%s : Retry-After of %s sec is too long, request is not retried", server, retryAfter / 1000));
+            return -1;
+        } else if (retryAfter >= 0) {
+            //jitter is added, so clients that received the same Retry-After don't retry at the same time
+            delay = retryAfter + ThreadLocalRandom.current().nextLong(baseDelay + 1);
+        }
+
+        if (!getBudget(server).withdraw()) {
+            logger.warn(String.format("%s : retry budget is exhausted, request is not retried", server));
+            return -1;
+        }
+        return delay;
+    }
+
+    private static boolean isRetryable(String method, Exception failure) {
+        boolean idempotent = !"POST".equals(method);
+        if (failure instanceof RestStatusException) {
+            int status = ((RestStatusException) failure).getResponse().getStatusCode();
+            return (idempotent ? statuses : postStatuses).contains(status);
+        }
+
+        Throwable cause = failure.getCause();
+        if (cause instanceof UnknownHostException || cause instanceof SSLException) {
+            //configuration problem, retry will fail again
+            return false;
+        }
+        if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException) {
+            //request was not sent
+            return true;
+        }
+        //failure to parse response is not retried
+        return idempotent && HTTPUtils.isTransportFailure(failure);
+    }
+
+    /**
+     * Full jitter : random delay from 0 to exponentially growing limit
+     */
+    private static long getBackoff(int attempt) {
+        long limit = Math.min(maxDelay, (long) baseDelay << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(limit + 1);
+    }
+
+    /**
+     * @return Retry-After of the response in ms, -1 if not defined
+     */
+    private static long getRetryAfter(Exception failure) {
+        if (!(failure instanceof RestStatusException)) {
+            return -1;
+        }
+        Response response = ((RestStatusException) failure).getResponse();
+        Iterable<String> values = response.getResponseHeaders() != null ? response.getResponseHeaders().get(HEADER_RETRY_AFTER) : null;
+        if (values == null || !values.iterator().hasNext()) {
+            return -1;
+        }
+
+        //delay in seconds or http date
+        String value = values.iterator().next().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+
+    private static synchronized RetryBudget getBudget(String server) {
+        RetryBudget budget = budgets.get(server);
+        if (budget == null) {
+            budget = new RetryBudget();
+            budgets.put(server, budget);
+        }
+        return budget;
+    }
+
+    public static synchronized void logStatistics() {
+        for (Map.Entry<String, RetryBudget> entry : budgets.entrySet()) {
+            RetryBudget budget = entry.getValue();
+            if (budget.retries > 0 || budget.denied > 0) {
+                logger.info(String.format("Retries %s : %s requests, %s retries, %s retries denied by budget",
+                        entry.getKey(), budget.requests, budget.retries, budget.denied));
+            }
+        }
+    }
+
+    private static class RetryBudget {
+        private double balance = BUDGET_RESERVE;
+        private long requests;
+        private long retries;
+        private long denied;
+
+        synchronized void deposit(double amount) {
+            requests++;
+            balance = Math.min(balance + amount, BUDGET_RESERVE);
+        }
+
+        synchronized boolean withdraw() {
+            if (balance < 1) {
+                denied++;
+                return false;
+            }
+            balance--;
+            retries++;
+            return true;
+        }
+    }
+}
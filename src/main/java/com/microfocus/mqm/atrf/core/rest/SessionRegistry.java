@@ -0,0 +1,80 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Process wide registry of login sessions.
+ * Syncs that connect to the same server as the same user share one RestConnector and its cookies,
+ * so the server is logged in once per process and not once per sync.
+ */
+public class SessionRegistry {
+
+    private static Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * @return session of user on the server, not logged in session is created on first call
+     */
+    public static Session getSession(String baseUrl, String user) {
+        String key = baseUrl + "|" + user;
+        return sessions.computeIfAbsent(key, k -> {
+            RestConnector restConnector = new RestConnector();
+            restConnector.setBaseUrl(baseUrl);
+            return new Session(restConnector);
+        });
+    }
+
+    public static class Session {
+
+        private RestConnector restConnector;
+        private boolean loggedIn;
+
+        private Session(RestConnector restConnector) {
+            this.restConnector = restConnector;
+        }
+
+        public RestConnector getRestConnector() {
+            return restConnector;
+        }
+
+        /**
+         * Runs login only if session is not logged in yet. Concurrent callers wait for the login in progress,
+         * so cookies of the shared connector are cleared only once.
+         * The login is single-flight with relogins of the connector, requests of other syncs wait for it.
+         *
+         * @param login logs in by the shared connector
+         * @return true if login was done by this call, false if session is already logged in
+         */
+        public synchronized boolean login(BooleanSupplier login) {
+            if (loggedIn) {
+                return false;
+            }
+            loggedIn = restConnector.renewSession(login);
+            return true;
+        }
+
+        /**
+         * Next login call logs in again
+         */
+        public synchronized void invalidate() {
+            loggedIn = false;
+        }
+    }
+}
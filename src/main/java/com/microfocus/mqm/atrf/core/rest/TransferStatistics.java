@@ -0,0 +1,105 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Counts bytes of request and response bodies per endpoint, as they are on the wire (compressed) and as they are used by the tool (uncompressed).
+ * Endpoint is http method + url path, where numeric path segments (ids) are replaced by {id}, so all requests to the same collection are counted together.
+ */
+public class TransferStatistics {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private static final Pattern NUMERIC_SEGMENT = Pattern.compile("/\\d+(?=/|$)");
+
+    private static Map<String, EndpointStatistics> endpointStatistics = new TreeMap<>();
+
+    public static void recordSent(String method, URI uri, long uncompressedBytes, long compressedBytes) {
+        EndpointStatistics stats = getEndpointStatistics(method, uri);
+        synchronized (stats) {
+            stats.sentRequests++;
+            stats.sentUncompressed += uncompressedBytes;
+            stats.sentCompressed += compressedBytes;
+        }
+    }
+
+    public static void recordReceived(String method, URI uri, long uncompressedBytes, long compressedBytes) {
+        EndpointStatistics stats = getEndpointStatistics(method, uri);
+        synchronized (stats) {
+            stats.receivedResponses++;
+            stats.receivedUncompressed += uncompressedBytes;
+            stats.receivedCompressed += compressedBytes;
+        }
+    }
+
+    public static synchronized void logStatistics() {
+        for (Map.Entry<String, EndpointStatistics> entry : endpointStatistics.entrySet()) {
+            EndpointStatistics stats = entry.getValue();
+            synchronized (stats) {
+                if (stats.sentRequests > 0) {
+                    logger.info(String.format("Transfer %s : sent %s bodies, %s bytes, %s bytes on wire (%s%%)",
+                            entry.getKey(), stats.sentRequests, stats.sentUncompressed, stats.sentCompressed, ratio(stats.sentCompressed, stats.sentUncompressed)));
+                }
+                if (stats.receivedResponses > 0) {
+                    logger.info(String.format("Transfer %s : received %s bodies, %s bytes, %s bytes on wire (%s%%)",
+                            entry.getKey(), stats.receivedResponses, stats.receivedUncompressed, stats.receivedCompressed, ratio(stats.receivedCompressed, stats.receivedUncompressed)));
+                }
+            }
+        }
+    }
+
+    static String normalizeEndpoint(String method, URI uri) {
+        String path = uri.getRawPath();
+        if (path == null) {
+            path = "";
+        }
+        return method + " " + uri.getHost() + NUMERIC_SEGMENT.matcher(path).replaceAll("/{id}");
+    }
+
+    private static synchronized EndpointStatistics getEndpointStatistics(String method, URI uri) {
+        String key = normalizeEndpoint(method, uri);
+        EndpointStatistics stats = endpointStatistics.get(key);
+        if (stats == null) {
+            stats = new EndpointStatistics();
+            endpointStatistics.put(key, stats);
+        }
+        return stats;
+    }
+
+    private static long ratio(long compressed, long uncompressed) {
+        return uncompressed == 0 ? 100 : Math.round(compressed * 100.0 / uncompressed);
+    }
+
+    private static class EndpointStatistics {
+        long sentRequests;
+        long sentUncompressed;
+        long sentCompressed;
+        long receivedResponses;
+        long receivedUncompressed;
+        long receivedCompressed;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Controls pace of posts to ALM Octane : delay between posts and number of posted jobs that may be queued or running in ALM Octane.
+ * <p>
+ * If adaptive, AIMD is used : while ALM Octane is healthy, delay is decreased and number of jobs in flight is increased additively,
+ * on congestion delay is doubled and number of jobs in flight is halved.
+ * It starts with the highest number of jobs in flight, as completion of jobs is known only by polling of their statuses,
+ * and starting from one job would wait for a status poll after each post.
+ * Congestion is : failed post, high error rate of recent posts, post latency that is much higher than the lowest observed latency,
+ * or jobs that are still waiting in ALM Octane queue.
+ * The lowest latency drifts slowly towards recent latencies, so lasting change of ALM Octane response time is accepted as new base.
+ * Configured sleep between posts is the lowest delay.
+ * <p>
+ * If not adaptive, configured sleep between posts is used and number of jobs in flight is not limited.
+ */
+public class AdaptiveSendController {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final int MAX_JOBS_IN_FLIGHT_DEFAULT = 8;
+    public static final long MAX_DELAY = 120 * 1000;
+
+    private static final long DELAY_DECREASE_STEP = 1000;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double ERROR_RATE_THRESHOLD = 0.2;
+    //weight of the last post in error rate and latency averages
+    private static final double SMOOTHING = 0.3;
+    //weight of the last post in base latency, if it is higher than the base
+    private static final double BASE_LATENCY_DRIFT = 0.05;
+
+    private final boolean adaptive;
+    private final long minDelay;
+    private final int maxJobsInFlight;
+
+    private long delay;
+    private int jobsInFlightLimit;
+    private double errorRate;
+    private double avgLatency;
+    private double baseLatency;
+
+    /**
+     * @param adaptive        if false, delay is always minDelay and number of jobs in flight is not limited
+     * @param minDelay        lowest delay between posts, ms
+     * @param maxJobsInFlight highest number of jobs that may be queued or running in ALM Octane
+     */
+    public AdaptiveSendController(boolean adaptive, long minDelay, int maxJobsInFlight) {
+        this.adaptive = adaptive;
+        this.minDelay = minDelay;
+        this.maxJobsInFlight = adaptive ? maxJobsInFlight : Integer.MAX_VALUE;
+        this.delay = minDelay;
+        this.jobsInFlightLimit = this.maxJobsInFlight;
+    }
+
+    /**
+     * @return delay between posts, ms
+     */
+    public synchronized long getDelay() {
+        return delay;
+    }
+
+    /**
+     * @return number of posted jobs that may be queued or running in ALM Octane, before next post
+     */
+    public synchronized int getJobsInFlightLimit() {
+        return jobsInFlightLimit;
+    }
+
+    /**
+     * @param latency    of the post, ms
+     * @param queuedJobs number of posted jobs that are known to be still queued in ALM Octane
+     */
+    public synchronized void onPostSucceeded(long latency, int queuedJobs) {
+        if (!adaptive) {
+            return;
+        }
+        latency = Math.max(latency, 1);
+        errorRate = (1 - SMOOTHING) * errorRate;
+        avgLatency = avgLatency == 0 ? latency : SMOOTHING * latency + (1 - SMOOTHING) * avgLatency;
+        if (baseLatency == 0 || latency < baseLatency) {
+            baseLatency = latency;
+        } else {
+            baseLatency = BASE_LATENCY_DRIFT * latency + (1 - BASE_LATENCY_DRIFT) * baseLatency;
+        }
+
+        boolean slow = avgLatency > LATENCY_TOLERANCE * baseLatency;
+        boolean backlogged = queuedJobs > 0 && queuedJobs >= jobsInFlightLimit;
+        if (slow || backlogged || errorRate > ERROR_RATE_THRESHOLD) {
+            decrease(slow ? "ALM Octane response time is growing" : (backlogged ? "jobs are waiting in ALM Octane queue" : "recent posts failed"));
+        } else {
+            increase();
+        }
+    }
+
+    public synchronized void onPostFailed() {
+        if (!adaptive) {
+            return;
+        }
+        errorRate = SMOOTHING + (1 - SMOOTHING) * errorRate;
+        decrease("post failed");
+    }
+
+    private void increase() {
+        long newDelay = Math.max(minDelay, delay - DELAY_DECREASE_STEP);
+        int newLimit = Math.min(maxJobsInFlight, jobsInFlightLimit + 1);
+        update(newDelay, newLimit, "ALM Octane is healthy");
+    }
+
+    private void decrease(String reason) {
+        long newDelay = Math.min(Math.max(minDelay, MAX_DELAY), Math.max(delay * 2, DELAY_DECREASE_STEP));
+        int newLimit = Math.max(1, jobsInFlightLimit / 2);
+        update(newDelay, newLimit, reason);
+    }
+
+    private void update(long newDelay, int newLimit, String reason) {
+        if (newDelay != delay || newLimit != jobsInFlightLimit) {
+            logger.info(String.format("Adaptive throttling : %s, sleep between posts %s ms, jobs in flight %s", reason, newDelay, newLimit));
+        }
+        delay = newDelay;
+        jobsInFlightLimit = newLimit;
+    }
+}
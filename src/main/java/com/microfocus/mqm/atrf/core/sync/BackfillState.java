@@ -0,0 +1,158 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Progress of date window backfill. Window is completed when all its runs are fetched and all its bulks are accepted by ALM Octane.
+ * Completed windows are appended to the state file, so interrupted backfill is resumed from not completed windows.
+ * Window that is not closed (its end date is in the future) is never saved as completed, as new runs might be added to it.
+ */
+public class BackfillState {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private final Path filePath;
+    private final Set<String> completedWindows = new HashSet<>();
+    private final Map<String, WindowProgress> windows = new HashMap<>();
+    private long maxSentRunId;
+    private boolean writable = true;
+
+    public BackfillState(String filePath) {
+        this.filePath = Paths.get(filePath);
+    }
+
+    public synchronized void load() {
+        if (!Files.exists(filePath)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(filePath, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    completedWindows.add(line.trim());
+                }
+            }
+            logger.info(String.format("Backfill : %s completed windows are loaded from %s", completedWindows.size(), filePath.toFile().getAbsolutePath()));
+        } catch (IOException e) {
+            logger.warn(String.format("Failed to read backfill state from %s, all windows are fetched : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+        }
+    }
+
+    public synchronized boolean isCompleted(String window) {
+        return completedWindows.contains(window);
+    }
+
+    /**
+     * Register window, that is processed by current run
+     *
+     * @param closed true if no runs might be added to the window later, only closed window is saved as completed
+     */
+    public synchronized void register(String window, boolean closed) {
+        windows.put(window, new WindowProgress(closed));
+    }
+
+    public synchronized void onBulkPrepared(String window) {
+        windows.get(window).pendingBulks++;
+    }
+
+    /**
+     * All runs of the window are fetched, and all its bulks are prepared
+     */
+    public synchronized void onWindowFetched(String window) {
+        windows.get(window).fetched = true;
+        completeIfDone(window);
+    }
+
+    public synchronized void onBulkSent(String window, String lastRunId, boolean acknowledged) {
+        WindowProgress progress = windows.get(window);
+        progress.pendingBulks--;
+        if (acknowledged) {
+            maxSentRunId = Math.max(maxSentRunId, Long.parseLong(lastRunId));
+        } else {
+            progress.failed = true;
+        }
+        completeIfDone(window);
+    }
+
+    /**
+     * @return true if all windows of the backfill are completed
+     */
+    public synchronized boolean isBackfillCompleted() {
+        for (WindowProgress progress : windows.values()) {
+            if (!progress.completed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return highest run id, that is accepted by ALM Octane in current run, null if nothing was sent
+     */
+    public synchronized String getMaxSentRunId() {
+        return maxSentRunId > 0 ? Long.toString(maxSentRunId) : null;
+    }
+
+    private void completeIfDone(String window) {
+        WindowProgress progress = windows.get(window);
+        if (!progress.fetched || progress.pendingBulks > 0 || progress.failed || progress.completed) {
+            return;
+        }
+        progress.completed = true;
+        if (progress.closed) {
+            completedWindows.add(window);
+            save(window);
+        }
+        logger.info(String.format("Backfill : window %s is completed", window));
+    }
+
+    private void save(String window) {
+        if (!writable) {
+            return;
+        }
+        try {
+            Files.write(filePath, Collections.singletonList(window), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.error(String.format("Failed to write backfill state to %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            writable = false;
+        }
+    }
+
+    private static class WindowProgress {
+        private final boolean closed;
+        private int pendingBulks;
+        private boolean fetched;
+        private boolean failed;
+        private boolean completed;
+
+        WindowProgress(boolean closed) {
+            this.closed = closed;
+        }
+    }
+}
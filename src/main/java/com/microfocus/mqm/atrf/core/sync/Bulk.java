@@ -0,0 +1,87 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import com.microfocus.mqm.atrf.octane.entities.TestRunResultEntity;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit of work that travels through the send pipeline : one page of ALM runs, converted to ALM Octane test results.
+ */
+public class Bulk {
+
+    /**
+     * Marker that is put to the queue by a stage after its last bulk
+     */
+    public static final Bulk END = new Bulk(-1, Collections.<TestRunResultEntity>emptyList());
+
+    private int bulkId;
+    private List<TestRunResultEntity> testRunResults;
+    private String partitionName;
+    private long timeLeft;
+
+    public Bulk(int bulkId, List<TestRunResultEntity> testRunResults) {
+        this(bulkId, testRunResults, null);
+    }
+
+    /**
+     * @param partitionName partition of the runs, if runs are fetched by partitions that are tracked separately
+     */
+    public Bulk(int bulkId, List<TestRunResultEntity> testRunResults, String partitionName) {
+        this.bulkId = bulkId;
+        this.testRunResults = testRunResults;
+        this.partitionName = partitionName;
+    }
+
+    public int getBulkId() {
+        return bulkId;
+    }
+
+    public List<TestRunResultEntity> getTestRunResults() {
+        return testRunResults;
+    }
+
+    public String getPartitionName() {
+        return partitionName;
+    }
+
+    /**
+     * @return time in ms that is left of bulk deadline after the bulk is prepared, 0 if bulk has no deadline
+     */
+    public long getTimeLeft() {
+        return timeLeft;
+    }
+
+    public void setTimeLeft(long timeLeft) {
+        this.timeLeft = timeLeft;
+    }
+
+    public String getFirstRunId() {
+        return testRunResults.get(0).getRunId();
+    }
+
+    public String getLastRunId() {
+        return testRunResults.get(testRunResults.size() - 1).getRunId();
+    }
+
+    public boolean isEnd() {
+        return this == END;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import com.microfocus.mqm.atrf.core.rest.RequestBodyWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Directory of converted bulks, that are not accepted by ALM Octane yet.
+ * Bulk is written before it is sent and removed when ALM Octane accepts it,
+ * bulk that failed to be sent stays in the spool and is replayed later, also by next runs of the tool.
+ * Bulk that is sent or replayed is claimed, so it is not replayed at the same time.
+ * Bulk that is rejected by ALM Octane is moved to rejected subdirectory, so it is not replayed again.
+ */
+public class BulkSpool {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final String DIR_DEFAULT = "logs/spool";
+    public static final String REJECTED_DIR = "rejected";
+
+    private static final String FILE_PREFIX = "bulk_";
+    private static final String FILE_SUFFIX = ".xml";
+    private static final String SEPARATOR = "_";
+
+    private final Path dir;
+    private final Set<Path> claimed = new HashSet<>();
+
+    public BulkSpool(String dir) {
+        this.dir = Paths.get(dir);
+    }
+
+    /**
+     * Writes the bulk to the spool, the file is claimed by the caller
+     *
+     * @return spooled file
+     */
+    public Path write(String firstRunId, String lastRunId, RequestBodyWriter bodyWriter) throws IOException {
+        Files.createDirectories(dir);
+        String name = FILE_PREFIX + firstRunId + SEPARATOR + lastRunId + SEPARATOR + System.nanoTime() + FILE_SUFFIX;
+        Path file = dir.resolve(name);
+        Path tempFile = dir.resolve(name + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            bodyWriter.writeTo(out);
+        }
+        synchronized (this) {
+            claimed.add(file);
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    /**
+     * @return spooled files that are not claimed, ordered by run ids
+     */
+    public List<Path> list() {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.filter(file -> file.getFileName().toString().startsWith(FILE_PREFIX) && file.getFileName().toString().endsWith(FILE_SUFFIX))
+                    .forEach(files::add);
+        } catch (IOException e) {
+            logger.error(String.format("Failed to list spool %s : %s", dir.toFile().getAbsolutePath(), e.getMessage()));
+        }
+        synchronized (this) {
+            files.removeAll(claimed);
+        }
+        files.sort(Comparator.comparingLong((Path file) -> Long.parseLong(getRunRange(file)[0])).thenComparing(Path::toString));
+        return files;
+    }
+
+    /**
+     * @return false if the file is already claimed
+     */
+    public synchronized boolean claim(Path file) {
+        return claimed.add(file);
+    }
+
+    /**
+     * Returns the file to the spool, so it is replayed
+     */
+    public synchronized void release(Path file) {
+        claimed.remove(file);
+    }
+
+    /**
+     * Removes the file, that is accepted by ALM Octane
+     */
+    public void remove(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            //file stays claimed, so it is not replayed again by this run
+            logger.error(String.format("Failed to remove %s from spool : %s", file.toFile().getAbsolutePath(), e.getMessage()));
+            return;
+        }
+        synchronized (this) {
+            claimed.remove(file);
+        }
+    }
+
+    /**
+     * Moves the file, that is rejected by ALM Octane, to rejected subdirectory
+     *
+     * @return moved file, null if failed to move
+     */
+    public Path reject(Path file) {
+        Path rejectedFile = dir.resolve(REJECTED_DIR).resolve(file.getFileName());
+        try {
+            Files.createDirectories(rejectedFile.getParent());
+            Files.move(file, rejectedFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            //file stays claimed, so it is not replayed again by this run
+            logger.error(String.format("Failed to move %s to %s : %s", file.toFile().getAbsolutePath(), rejectedFile.getParent().toFile().getAbsolutePath(), e.getMessage()));
+            return null;
+        }
+        synchronized (this) {
+            claimed.remove(file);
+        }
+        return rejectedFile;
+    }
+
+    /**
+     * @return first and last run ids of the spooled bulk
+     */
+    public static String[] getRunRange(Path file) {
+        String[] parts = file.getFileName().toString().split(SEPARATOR);
+        return new String[]{parts[1], parts[2]};
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import com.microfocus.mqm.atrf.core.rest.CircuitOpenException;
+import com.microfocus.mqm.atrf.octane.core.OctaneTestResultOutput;
+import com.microfocus.mqm.atrf.octane.services.OctaneWrapperService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Polls creation status of test result jobs in ALM Octane in background, while next bulks are still sent.
+ * Each job is polled with its own exponential backoff : first poll after initial delay, than the delay is doubled
+ * up to max delay, until the job is completed.
+ */
+public class JobStatusTracker implements Closeable {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final long INITIAL_DELAY_DEFAULT = 5 * 1000;
+    public static final long MAX_DELAY_DEFAULT = 60 * 1000;
+
+    private static final String STATUS_RUNNING = "running";
+    private static final String STATUS_QUEUED = "queued";
+
+    private final OctaneWrapperService octaneWrapper;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("job-status"));
+
+    //final outputs by bulk id
+    private final Map<Integer, OctaneTestResultOutput> completedJobs = new TreeMap<>();
+    private final Set<TrackedJob> pendingJobs = new HashSet<>();
+    private boolean stopped;
+    private Consumer<OctaneTestResultOutput> completionListener;
+
+    public JobStatusTracker(OctaneWrapperService octaneWrapper) {
+        this(octaneWrapper, INITIAL_DELAY_DEFAULT, MAX_DELAY_DEFAULT);
+    }
+
+    public JobStatusTracker(OctaneWrapperService octaneWrapper, long initialDelay, long maxDelay) {
+        this.octaneWrapper = octaneWrapper;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * @param completionListener receives output of the job, that was polled until it is completed or polling failed
+     */
+    public synchronized void setCompletionListener(Consumer<OctaneTestResultOutput> completionListener) {
+        this.completionListener = completionListener;
+    }
+
+    /**
+     * Starts tracking of the job, returned by post of the bulk
+     */
+    public synchronized void track(int bulkId, OctaneTestResultOutput output) {
+        if (isCompleted(output)) {
+            completedJobs.put(bulkId, output);
+            return;
+        }
+        TrackedJob job = new TrackedJob(bulkId, output);
+        pendingJobs.add(job);
+        schedulePoll(job, initialDelay);
+    }
+
+    /**
+     * @return number of tracked jobs that are not completed yet
+     */
+    public synchronized int getPendingJobs() {
+        return pendingJobs.size();
+    }
+
+    /**
+     * @return number of tracked jobs, that are known to be waiting in ALM Octane queue
+     */
+    public synchronized int getQueuedJobs() {
+        int queued = 0;
+        for (TrackedJob job : pendingJobs) {
+            if (STATUS_QUEUED.equals(job.output.getStatus())) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Waits until number of not completed jobs is less than the limit
+     */
+    public synchronized void awaitPendingJobsBelow(int limit) throws InterruptedException {
+        while (pendingJobs.size() >= limit && !stopped) {
+            wait();
+        }
+    }
+
+    /**
+     * Stops polling, waiting threads are released without waiting for not completed jobs
+     */
+    public synchronized void stop() {
+        stopped = true;
+        scheduler.shutdownNow();
+        notifyAll();
+    }
+
+    /**
+     * Stops polling and releases polling thread, jobs that are not completed are not awaited
+     */
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Waits until all tracked jobs are completed, and reports their final statuses
+     *
+     * @return final outputs, ordered by bulk id
+     */
+    public List<OctaneTestResultOutput> awaitCompletion() throws InterruptedException {
+        List<OctaneTestResultOutput> outputs;
+        synchronized (this) {
+            while (!pendingJobs.isEmpty() && !stopped) {
+                wait();
+            }
+            outputs = new ArrayList<>(completedJobs.values());
+            if (!pendingJobs.isEmpty()) {
+                logger.info(String.format("Statuses of %s jobs are not awaited, as tracking is stopped", pendingJobs.size()));
+            }
+        }
+        scheduler.shutdownNow();
+
+        Map<String, Integer> statusCounts = new TreeMap<>();
+        for (OctaneTestResultOutput output : outputs) {
+            String status = output.getStatus().toUpperCase();
+            Integer count = statusCounts.get(status);
+            statusCounts.put(status, count == null ? 1 : count + 1);
+        }
+        logger.info(String.format("Creation statuses of %s bulks : %s", outputs.size(), statusCounts));
+        return outputs;
+    }
+
+    private void schedulePoll(TrackedJob job, long delay) {
+        job.delay = delay;
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(() -> poll(job), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(TrackedJob job) {
+        try {
+            //failed request is retried by RetryPolicy of the connector
+            job.output = octaneWrapper.getTestResultStatus(job.output);
+        } catch (CircuitOpenException e) {
+            //endpoint is not available, polling is parked until the circuit allows probe
+            schedulePoll(job, Math.max(job.delay, e.getRemainingOpenTime()));
+            return;
+        } catch (Exception e) {
+            logger.info(String.format("Bulk #%s : failed to get creation status : %s", job.bulkId, e.getMessage()));
+            complete(job);
+            return;
+        }
+
+        logger.info(String.format("Bulk #%s : creation status is %s", job.bulkId, job.output.getStatus().toUpperCase()));
+        if (isCompleted(job.output)) {
+            complete(job);
+        } else {
+            schedulePoll(job, Math.min(job.delay * 2, maxDelay));
+        }
+    }
+
+    private synchronized void complete(TrackedJob job) {
+        completedJobs.put(job.bulkId, job.output);
+        pendingJobs.remove(job);
+        if (completionListener != null) {
+            completionListener.accept(job.output);
+        }
+        notifyAll();
+    }
+
+    private static boolean isCompleted(OctaneTestResultOutput output) {
+        return isCompleted(output.getStatus());
+    }
+
+    /**
+     * @return true if job with the status is not queued or running in ALM Octane
+     */
+    public static boolean isCompleted(String status) {
+        return !(STATUS_RUNNING.equals(status) || STATUS_QUEUED.equals(status));
+    }
+
+    private static class TrackedJob {
+        private final int bulkId;
+        private volatile OctaneTestResultOutput output;
+        private long delay;
+
+        TrackedJob(int bulkId, OctaneTestResultOutput output) {
+            this.bulkId = bulkId;
+            this.output = output;
+        }
+    }
+}
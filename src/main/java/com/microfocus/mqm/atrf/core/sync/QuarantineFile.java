@@ -0,0 +1,66 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import com.microfocus.mqm.atrf.core.rest.RequestBodyWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Append-only file of runs that are rejected by ALM Octane.
+ * Each entry is a header line with the rejected run ids and the error of ALM Octane, followed by the test results xml of the runs,
+ * so the runs can be fixed and sent again.
+ */
+public class QuarantineFile {
+
+    private static final String ENTRY_PREFIX = "#### ";
+
+    private final Path path;
+
+    public QuarantineFile(String path) {
+        this.path = Paths.get(path);
+    }
+
+    public String getPath() {
+        return path.toFile().getAbsolutePath();
+    }
+
+    public synchronized void add(String firstRunId, String lastRunId, String error, RequestBodyWriter bodyWriter) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        String runIds = firstRunId.equals(lastRunId) ? "run id " + firstRunId : "run ids from " + firstRunId + " to " + lastRunId;
+        String header = String.format("%s%s %s : %s%n", ENTRY_PREFIX, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()),
+                runIds, error == null ? "" : error.replaceAll("\\s*[\\r\\n]+\\s*", " "));
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(header.getBytes(StandardCharsets.UTF_8));
+            bodyWriter.writeTo(out);
+            out.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
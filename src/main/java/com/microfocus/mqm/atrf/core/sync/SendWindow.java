@@ -0,0 +1,92 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Sliding window of bulks that are sent to ALM Octane concurrently.
+ * Bulk is opened before it is sent and closed when the post is completed.
+ * Watermark (last run id of the bulk) is moved forward only when the bulk and all lower bulks are acknowledged,
+ * so if the tool is stopped, runs of bulks that were still in flight are sent again by next run.
+ * Watermark never passes a bulk that failed to be sent : it stops below the failed bulk, and its runs are sent again by next run.
+ * Bulk that is kept in spool for replay is closed as acknowledged, as its runs are not lost.
+ */
+public class SendWindow {
+
+    //open, closed and failed bulks, that are not passed by watermark, by bulk id
+    private final TreeMap<Integer, Slot> slots = new TreeMap<>();
+    private final Consumer<String> watermarkListener;
+    private String watermark;
+
+    /**
+     * @param watermarkListener receives new watermark : last run id of the highest bulk, such that all bulks up to it are acknowledged
+     */
+    public SendWindow(Consumer<String> watermarkListener) {
+        this.watermarkListener = watermarkListener;
+    }
+
+    public synchronized void open(int bulkId, String lastRunId) {
+        slots.put(bulkId, new Slot(lastRunId));
+    }
+
+    /**
+     * @param acknowledged true if the bulk was accepted by ALM Octane, false if it failed to be sent
+     */
+    public synchronized void close(int bulkId, boolean acknowledged) {
+        Slot slot = slots.get(bulkId);
+        if (slot == null) {
+            return;
+        }
+        slot.acknowledged = acknowledged;
+
+        //failed bulk stays in the window, and holds the watermark till the end of the run
+        String newWatermark = null;
+        while (!slots.isEmpty() && slots.firstEntry().getValue().acknowledged) {
+            Map.Entry<Integer, Slot> first = slots.pollFirstEntry();
+            newWatermark = first.getValue().lastRunId;
+        }
+        if (newWatermark != null) {
+            watermark = newWatermark;
+            watermarkListener.accept(newWatermark);
+        }
+    }
+
+    /**
+     * @return number of bulks that are not passed by watermark : not closed, failed, or waiting for lower bulks
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    public synchronized String getWatermark() {
+        return watermark;
+    }
+
+    private static class Slot {
+        private final String lastRunId;
+        private boolean acknowledged;
+
+        Slot(String lastRunId) {
+            this.lastRunId = lastRunId;
+        }
+    }
+}
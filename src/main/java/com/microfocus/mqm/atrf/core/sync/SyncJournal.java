@@ -0,0 +1,355 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import com.microfocus.mqm.atrf.octane.core.OctaneTestResultOutput;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of bulks sent to ALM Octane, holds the last sent run id (watermark) of ALM project - ALM Octane workspace pair.
+ * Records :
+ * SENT first run id, last run id, job id, job status, partition - bulk is accepted by ALM Octane
+ * STATUS job id, status - job of the sent bulk is completed
+ * COMMIT run id - all runs up to the run id are sent
+ * Each record is a single line with CRC32, forced to disk before the sync goes on, so after crash
+ * the journal holds exact resume point, runs that were sent above it, and jobs that are not completed.
+ * Torn or corrupted line is ignored. Journal is compacted to live records by temp file and atomic move.
+ */
+public class SyncJournal {
+
+    static final Logger logger = LogManager.getLogger();
+
+    public static final int COMPACT_THRESHOLD = 1000;
+
+    private static final String SENT = "SENT";
+    private static final String STATUS = "STATUS";
+    private static final String COMMIT = "COMMIT";
+    private static final String SEPARATOR = "\t";
+    private static final String NO_PARTITION = "-";
+
+    private final Path filePath;
+    private FileChannel channel;
+    private boolean writable = true;
+    private int records;
+
+    private long watermark;
+    //sent bulks that are above watermark or their jobs are not completed
+    private final List<SentBulk> sentBulks = new ArrayList<>();
+
+    public SyncJournal(String filePath) {
+        this.filePath = Paths.get(filePath);
+    }
+
+    /**
+     * @return false if journal does not exist
+     */
+    public synchronized boolean load() {
+        if (!Files.exists(filePath)) {
+            return false;
+        }
+
+        int ignored = 0;
+        try {
+            String content = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
+            String[] lines = content.split("\n", -1);
+            //last piece is empty if the file ends by complete line
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i];
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (i == lines.length - 1 || !apply(line)) {
+                    ignored++;
+                    continue;
+                }
+                records++;
+            }
+        } catch (IOException e) {
+            logger.error(String.format("Failed to read journal %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            writable = false;
+            return true;
+        }
+        prune();
+
+        if (ignored > 0) {
+            logger.warn(String.format("Journal : %s torn or corrupted records are ignored", ignored));
+        }
+        logger.info(String.format("Journal : last sent run id %s, %s bulks are sent above it, %s jobs are not completed",
+                getWatermark(), getSentBulksAboveWatermark(), getPendingJobs().size()));
+        if (ignored > 0 || records > sentBulks.size() + 1) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * @return last sent run id, null if nothing was sent
+     */
+    public synchronized String getWatermark() {
+        return watermark > 0 ? Long.toString(watermark) : null;
+    }
+
+    /**
+     * @return true if the run was sent by bulk above watermark, so it should not be sent again
+     */
+    public synchronized boolean isSent(String runId) {
+        long id = Long.parseLong(runId);
+        for (SentBulk bulk : sentBulks) {
+            if (NO_PARTITION.equals(bulk.partition) && bulk.firstRunId <= id && id <= bulk.lastRunId && bulk.lastRunId > watermark) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return outputs of sent bulks, whose jobs are not completed
+     */
+    public synchronized List<OctaneTestResultOutput> getPendingJobs() {
+        List<OctaneTestResultOutput> outputs = new ArrayList<>();
+        for (SentBulk bulk : sentBulks) {
+            if (bulk.isPending()) {
+                OctaneTestResultOutput output = new OctaneTestResultOutput();
+                output.put(OctaneTestResultOutput.FIELD_ID, bulk.jobId);
+                output.put(OctaneTestResultOutput.FIELD_STATUS, bulk.status);
+                outputs.add(output);
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * @param partition partition of the bulk, if bulk is fetched by date windows, runs of the bulk are not contiguous by id
+     */
+    public synchronized void onBulkSent(String firstRunId, String lastRunId, OctaneTestResultOutput output, String partition) {
+        SentBulk bulk = new SentBulk(Long.parseLong(firstRunId), Long.parseLong(lastRunId), output.getId(), output.getStatus(),
+                partition == null ? NO_PARTITION : partition);
+        sentBulks.add(bulk);
+        append(bulk.toRecord());
+    }
+
+    public synchronized void onJobCompleted(OctaneTestResultOutput output) {
+        if (output.getId() == null) {
+            return;
+        }
+        for (SentBulk bulk : sentBulks) {
+            if (output.getId().equals(bulk.jobId)) {
+                bulk.status = output.getStatus();
+                append(STATUS + SEPARATOR + bulk.jobId + SEPARATOR + bulk.status);
+                prune();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves watermark : all runs up to the run id are sent
+     *
+     * @return false if the commit failed to be written to the journal
+     */
+    public synchronized boolean commit(String runId) {
+        watermark = Long.parseLong(runId);
+        boolean written = append(COMMIT + SEPARATOR + watermark);
+        prune();
+        return written;
+    }
+
+    /**
+     * Compacts the journal and closes it
+     */
+    public synchronized void close() {
+        if (records > sentBulks.size() + 1) {
+            compact();
+        }
+        closeChannel();
+    }
+
+    private boolean apply(String line) {
+        int crcIndex = line.lastIndexOf(SEPARATOR);
+        if (crcIndex < 0 || !line.substring(crcIndex + 1).equals(crc(line.substring(0, crcIndex)))) {
+            return false;
+        }
+        String[] fields = line.substring(0, crcIndex).split(SEPARATOR, -1);
+        try {
+            if (SENT.equals(fields[0]) && fields.length == 6) {
+                Integer jobId = fields[3].isEmpty() ? null : Integer.valueOf(fields[3]);
+                sentBulks.add(new SentBulk(Long.parseLong(fields[1]), Long.parseLong(fields[2]), jobId, fields[4], fields[5]));
+            } else if (STATUS.equals(fields[0]) && fields.length == 3) {
+                for (SentBulk bulk : sentBulks) {
+                    if (fields[1].equals(String.valueOf(bulk.jobId))) {
+                        bulk.status = fields[2];
+                    }
+                }
+            } else if (COMMIT.equals(fields[0]) && fields.length == 2) {
+                watermark = Long.parseLong(fields[1]);
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private void prune() {
+        Iterator<SentBulk> it = sentBulks.iterator();
+        while (it.hasNext()) {
+            SentBulk bulk = it.next();
+            if (bulk.lastRunId <= watermark && !bulk.isPending()) {
+                it.remove();
+            }
+        }
+    }
+
+    private int getSentBulksAboveWatermark() {
+        int count = 0;
+        for (SentBulk bulk : sentBulks) {
+            if (bulk.lastRunId > watermark) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return false if the record is not written
+     */
+    private boolean append(String record) {
+        if (!writable) {
+            return false;
+        }
+        try {
+            if (channel == null) {
+                if (filePath.getParent() != null) {
+                    Files.createDirectories(filePath.getParent());
+                }
+                channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(toLine(record).getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            records++;
+        } catch (IOException e) {
+            logger.error(String.format("Failed to write journal %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            writable = false;
+            return false;
+        }
+
+        if (records >= COMPACT_THRESHOLD) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the journal to watermark and sent bulks that are still required
+     */
+    private void compact() {
+        if (!writable) {
+            return;
+        }
+        closeChannel();
+        Path tempPath = Paths.get(filePath.toString() + ".tmp");
+        List<String> liveRecords = new ArrayList<>();
+        if (watermark > 0) {
+            liveRecords.add(COMMIT + SEPARATOR + watermark);
+        }
+        for (SentBulk bulk : sentBulks) {
+            liveRecords.add(bulk.toRecord());
+        }
+
+        try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder sb = new StringBuilder();
+            for (String record : liveRecords) {
+                sb.append(toLine(record));
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                tempChannel.write(buffer);
+            }
+            tempChannel.force(true);
+        } catch (IOException e) {
+            logger.error(String.format("Failed to compact journal %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            return;
+        }
+
+        try {
+            Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            records = liveRecords.size();
+        } catch (IOException e) {
+            logger.error(String.format("Failed to replace journal %s by compacted one : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error(String.format("Failed to close journal %s : %s", filePath.toFile().getAbsolutePath(), e.getMessage()));
+            }
+            channel = null;
+        }
+    }
+
+    private static String toLine(String record) {
+        return record + SEPARATOR + crc(record) + "\n";
+    }
+
+    private static String crc(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static class SentBulk {
+        private final long firstRunId;
+        private final long lastRunId;
+        private final Integer jobId;
+        private final String partition;
+        private String status;
+
+        SentBulk(long firstRunId, long lastRunId, Integer jobId, String status, String partition) {
+            this.firstRunId = firstRunId;
+            this.lastRunId = lastRunId;
+            this.jobId = jobId;
+            this.status = status;
+            this.partition = partition;
+        }
+
+        private boolean isPending() {
+            return jobId != null && !JobStatusTracker.isCompleted(status);
+        }
+
+        private String toRecord() {
+            return SENT + SEPARATOR + firstRunId + SEPARATOR + lastRunId + SEPARATOR + (jobId == null ? "" : jobId) + SEPARATOR + status + SEPARATOR + partition;
+        }
+    }
+}
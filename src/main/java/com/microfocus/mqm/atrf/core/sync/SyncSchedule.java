@@ -0,0 +1,199 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedule of sync cycles in daemon mode : fixed interval or cron expression.
+ * Cron expression holds 5 fields : minute, hour, day of month, month, day of week (0-7, 0 and 7 are Sunday).
+ * Each field is '*', value, range 'a-b', step '*&#47;n' or 'a-b/n', or comma separated list of them.
+ * As in cron, if both day of month and day of week are restricted, day matching any of them is allowed.
+ */
+public class SyncSchedule {
+
+    //next time is searched up to 9 years ahead, enough for any valid expression, for example 29th of February around 2100
+    private static final int MAX_SEARCH_YEARS = 9;
+    //days in month, including 29th of February
+    private static final int[] MAX_DAYS_OF_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private long interval;
+    private String expression;
+    private BitSet minutes;
+    private BitSet hours;
+    private BitSet daysOfMonth;
+    private BitSet months;
+    private BitSet daysOfWeek;
+    private boolean daysOfMonthRestricted;
+    private boolean daysOfWeekRestricted;
+
+    private SyncSchedule() {
+    }
+
+    /**
+     * @param minutes interval between start of cycle and end of previous cycle
+     */
+    public static SyncSchedule every(int minutes) {
+        SyncSchedule schedule = new SyncSchedule();
+        schedule.interval = TimeUnit.MINUTES.toMillis(minutes);
+        return schedule;
+    }
+
+    /**
+     * @throws IllegalArgumentException if expression is not valid or it never fires, for example on 30th of February
+     */
+    public static SyncSchedule cron(String expression) {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException(String.format("Cron expression '%s' should contain 5 fields : minute hour day-of-month month day-of-week", expression));
+        }
+        SyncSchedule schedule = new SyncSchedule();
+        schedule.expression = expression.trim();
+        schedule.minutes = parseField(fields[0], 0, 59);
+        schedule.hours = parseField(fields[1], 0, 23);
+        schedule.daysOfMonth = parseField(fields[2], 1, 31);
+        schedule.months = parseField(fields[3], 1, 12);
+        schedule.daysOfWeek = parseField(fields[4], 0, 7);
+        if (schedule.daysOfWeek.get(7)) {
+            schedule.daysOfWeek.set(0);
+        }
+        schedule.daysOfMonthRestricted = !fields[2].startsWith("*");
+        schedule.daysOfWeekRestricted = !fields[4].startsWith("*");
+        schedule.validateDaysOfMonth();
+        return schedule;
+    }
+
+    /**
+     * If only day of month is restricted, at least one of the days should exist in one of the months
+     */
+    private void validateDaysOfMonth() {
+        if (!daysOfMonthRestricted || daysOfWeekRestricted) {
+            return;
+        }
+        for (int month = months.nextSetBit(1); month >= 1 && month <= 12; month = months.nextSetBit(month + 1)) {
+            int firstDay = daysOfMonth.nextSetBit(1);
+            if (firstDay >= 1 && firstDay <= MAX_DAYS_OF_MONTH[month - 1]) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Cron expression '%s' never fires, its days of month do not exist in its months", expression));
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            String range = part;
+            int stepIndex = part.indexOf('/');
+            if (stepIndex >= 0) {
+                step = parseValue(part.substring(stepIndex + 1), 1, max, part);
+                range = part.substring(0, stepIndex);
+            }
+
+            int from;
+            int to;
+            if ("*".equals(range)) {
+                from = min;
+                to = max;
+            } else if (range.contains("-")) {
+                String[] bounds = range.split("-", 2);
+                from = parseValue(bounds[0], min, max, part);
+                to = parseValue(bounds[1], min, max, part);
+                if (from > to) {
+                    throw new IllegalArgumentException(String.format("Illegal range '%s' in cron expression", part));
+                }
+            } else {
+                from = parseValue(range, min, max, part);
+                to = stepIndex >= 0 ? max : from;
+            }
+
+            for (int i = from; i <= to; i += step) {
+                values.set(i);
+            }
+        }
+        return values;
+    }
+
+    private static int parseValue(String value, int min, int max, String part) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result < min || result > max) {
+                throw new IllegalArgumentException(String.format("Value '%s' in cron expression should be in range of %s-%s", part, min, max));
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Illegal value '%s' in cron expression", part));
+        }
+    }
+
+    /**
+     * @param after time of end of previous cycle
+     * @return time of start of next cycle
+     */
+    public long getNextTime(long after) {
+        if (expression == null) {
+            return after + interval;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(after);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.MINUTE, 1);
+        int maxYear = calendar.get(Calendar.YEAR) + MAX_SEARCH_YEARS;
+
+        while (calendar.get(Calendar.YEAR) <= maxYear) {
+            if (!months.get(calendar.get(Calendar.MONTH) + 1)) {
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+                calendar.set(Calendar.HOUR_OF_DAY, 0);
+                calendar.set(Calendar.MINUTE, 0);
+                calendar.add(Calendar.MONTH, 1);
+            } else if (!isDayMatched(calendar)) {
+                calendar.set(Calendar.HOUR_OF_DAY, 0);
+                calendar.set(Calendar.MINUTE, 0);
+                calendar.add(Calendar.DAY_OF_MONTH, 1);
+            } else if (!hours.get(calendar.get(Calendar.HOUR_OF_DAY))) {
+                calendar.set(Calendar.MINUTE, 0);
+                calendar.add(Calendar.HOUR_OF_DAY, 1);
+            } else if (!minutes.get(calendar.get(Calendar.MINUTE))) {
+                calendar.add(Calendar.MINUTE, 1);
+            } else {
+                return calendar.getTimeInMillis();
+            }
+        }
+        throw new IllegalStateException(String.format("Cron expression '%s' has no next time", expression));
+    }
+
+    private boolean isDayMatched(Calendar calendar) {
+        boolean dayOfMonthMatched = daysOfMonth.get(calendar.get(Calendar.DAY_OF_MONTH));
+        boolean dayOfWeekMatched = daysOfWeek.get(calendar.get(Calendar.DAY_OF_WEEK) - 1);
+        if (daysOfMonthRestricted && daysOfWeekRestricted) {
+            return dayOfMonthMatched || dayOfWeekMatched;
+        }
+        return dayOfMonthMatched && dayOfWeekMatched;
+    }
+
+    @Override
+    public String toString() {
+        if (expression == null) {
+            return String.format("every %s minutes", TimeUnit.MILLISECONDS.toMinutes(interval));
+        }
+        return String.format("by cron expression '%s'", expression);
+    }
+}
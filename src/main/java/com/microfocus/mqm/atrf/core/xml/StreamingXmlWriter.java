@@ -0,0 +1,176 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+
+package com.microfocus.mqm.atrf.core.xml;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Lightweight XML writer that streams elements and attributes directly to UTF-8 output, without building DOM.
+ * Output is identical to the one of DOM + Transformer serializer : same declaration, escaping and indentation.
+ * Note that attributes are written in the order they are supplied, DOM serializer sorted them alphabetically.
+ */
+public class StreamingXmlWriter implements Closeable {
+
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+    private static final String INDENT = "    ";
+
+    private final Writer writer;
+    private final boolean formatXml;
+    private final Deque<String> openElements = new ArrayDeque<>();
+    private boolean startTagOpen;
+
+    /**
+     * @param out       byte sink, it is closed when writer is closed
+     * @param formatXml if true, each element is written in new line and indented by its depth
+     */
+    public StreamingXmlWriter(OutputStream out, boolean formatXml) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.formatXml = formatXml;
+    }
+
+    public StreamingXmlWriter writeStartDocument() throws IOException {
+        writer.write(DECLARATION);
+        if (formatXml) {
+            writer.write('\n');
+        }
+        return this;
+    }
+
+    public StreamingXmlWriter writeStartElement(String name) throws IOException {
+        closeStartTag();
+        if (formatXml && !openElements.isEmpty()) {
+            writeNewLineAndIndent(openElements.size());
+        }
+        writer.write('<');
+        writer.write(name);
+        openElements.push(name);
+        startTagOpen = true;
+        return this;
+    }
+
+    public StreamingXmlWriter writeAttribute(String name, String value) throws IOException {
+        if (!startTagOpen) {
+            throw new IllegalStateException("Attribute " + name + " must be written right after start element");
+        }
+        writer.write(' ');
+        writer.write(name);
+        writer.write("=\"");
+        writeEscaped(value == null ? "" : value);
+        writer.write('"');
+        return this;
+    }
+
+    public StreamingXmlWriter writeEndElement() throws IOException {
+        String name = openElements.pop();
+        if (startTagOpen) {
+            writer.write("/>");
+            startTagOpen = false;
+        } else {
+            if (formatXml) {
+                writeNewLineAndIndent(openElements.size());
+            }
+            writer.write("</");
+            writer.write(name);
+            writer.write('>');
+        }
+        return this;
+    }
+
+    /**
+     * Closes all open elements and flushes the output
+     */
+    public void writeEndDocument() throws IOException {
+        while (!openElements.isEmpty()) {
+            writeEndElement();
+        }
+        if (formatXml) {
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void closeStartTag() throws IOException {
+        if (startTagOpen) {
+            writer.write('>');
+            startTagOpen = false;
+        }
+    }
+
+    private void writeNewLineAndIndent(int depth) throws IOException {
+        writer.write('\n');
+        for (int i = 0; i < depth; i++) {
+            writer.write(INDENT);
+        }
+    }
+
+    /**
+     * Escapes attribute value : markup characters and quote are replaced by entities,
+     * control characters (including tab and new lines) and characters outside of BMP are written as character references
+     */
+    private void writeEscaped(String value) throws IOException {
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    if (c < 0x20) {
+                        replacement = "&#" + (int) c + ";";
+                    } else if (Character.isSurrogate(c)) {
+                        if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                            replacement = "&#" + Character.toCodePoint(c, value.charAt(i + 1)) + ";";
+                            writer.write(value, start, i - start);
+                            writer.write(replacement);
+                            i++;
+                            start = i + 1;
+                            continue;
+                        }
+                        throw new IOException(String.format("Invalid UTF-16 surrogate detected: %x", (int) c));
+                    } else {
+                        continue;
+                    }
+            }
+            writer.write(value, start, i - start);
+            writer.write(replacement);
+            start = i + 1;
+        }
+        writer.write(value, start, length - start);
+    }
+}
@@ -20,6 +20,7 @@ package com.microfocus.mqm.atrf.octane.services;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microfocus.mqm.atrf.core.rest.HTTPUtils;
+import com.microfocus.mqm.atrf.core.rest.RequestBodyWriter;
 import com.microfocus.mqm.atrf.core.rest.Response;
 import com.microfocus.mqm.atrf.core.rest.RestConnector;
 import com.microfocus.mqm.atrf.core.rest.SupportRelogin;
@@ -45,6 +46,7 @@ public class OctaneEntityService implements SupportRelogin {
     private long sharedSpaceId;
     private long workspaceId;
     private OctaneAuthenticationPojo authData;
+    private boolean gzipUploads;
 
     Map<String, OctaneEntityDescriptor> typesMap = new HashMap<>();
 
@@ -106,6 +108,13 @@ public class OctaneEntityService implements SupportRelogin {
     }
 
 
+    /**
+     * @param gzipUploads if true, test results are compressed with gzip, other requests are not affected
+     */
+    public void setGzipUploads(boolean gzipUploads) {
+        this.gzipUploads = gzipUploads;
+    }
+
     public void setWorkspaceId(long workspaceId) {
         this.workspaceId = workspaceId;
     }
@@ -141,14 +150,14 @@ public class OctaneEntityService implements SupportRelogin {
         return col;
     }
 
-    public OctaneTestResultOutput postTestResults(String data) {
+    public OctaneTestResultOutput postTestResults(RequestBodyWriter bodyWriter) {
         String entityCollectionUrl = String.format(OctaneRestConstants.PUBLIC_API_WORKSPACE_LEVEL_ENTITIES, getSharedSpaceId(), getWorkspaceId(), "test-results");
 
         Map<String, String> headers = new HashMap<>();
         headers.put(HTTPUtils.HEADER_ACCEPT, HTTPUtils.HEADER_APPLICATION_JSON);
         headers.put(HTTPUtils.HEADER_CONTENT_TYPE, HTTPUtils.HEADER_APPLICATION_XML);
 
-        String responseStr = restConnector.httpPost(entityCollectionUrl, data, headers).getResponseData();
+        String responseStr = restConnector.httpPost(entityCollectionUrl, bodyWriter, headers, gzipUploads).getResponseData();
         OctaneTestResultOutput result = parseTestResultOutput(responseStr);
         return result;
     }
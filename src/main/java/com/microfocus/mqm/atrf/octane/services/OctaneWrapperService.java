@@ -17,6 +17,7 @@
 
 package com.microfocus.mqm.atrf.octane.services;
 
+import com.microfocus.mqm.atrf.core.rest.RequestBodyWriter;
 import com.microfocus.mqm.atrf.core.rest.RestConnector;
 import com.microfocus.mqm.atrf.octane.core.OctaneEntityCollection;
 import com.microfocus.mqm.atrf.octane.core.OctaneTestResultOutput;
@@ -36,15 +37,33 @@ public class OctaneWrapperService {
 
 
     public OctaneWrapperService(String baseUrl, long sharedSpaceId, long workspaceId) {
+        this(createRestConnector(baseUrl), sharedSpaceId, workspaceId);
+    }
 
-        restConnector = new RestConnector();
-        restConnector.setBaseUrl(baseUrl);
+    /**
+     * @param restConnector connector to ALM Octane server, might be shared with other workspaces of the same server
+     */
+    public OctaneWrapperService(RestConnector restConnector, long sharedSpaceId, long workspaceId) {
 
+        this.restConnector = restConnector;
         octaneEntityService = new OctaneEntityService(restConnector);
         octaneEntityService.setSharedSpaceId(sharedSpaceId);
         octaneEntityService.setWorkspaceId(workspaceId);
     }
 
+    private static RestConnector createRestConnector(String baseUrl) {
+        RestConnector restConnector = new RestConnector();
+        restConnector.setBaseUrl(baseUrl);
+        return restConnector;
+    }
+
+    /**
+     * @param gzipUploads if true, test results are compressed before sending
+     */
+    public void setGzipUploads(boolean gzipUploads) {
+        octaneEntityService.setGzipUploads(gzipUploads);
+    }
+
     public boolean login(String user, String password) {
         return octaneEntityService.login(user, password);
     }
@@ -72,8 +91,8 @@ public class OctaneWrapperService {
         }
     }
 
-    public OctaneTestResultOutput postTestResults(String xml) {
-        return octaneEntityService.postTestResults(xml);
+    public OctaneTestResultOutput postTestResults(RequestBodyWriter xmlWriter) {
+        return octaneEntityService.postTestResults(xmlWriter);
     }
 
     public OctaneTestResultOutput getTestResultStatus(OctaneTestResultOutput output) {
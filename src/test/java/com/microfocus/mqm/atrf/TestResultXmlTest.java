@@ -0,0 +1,165 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf;
+
+import com.microfocus.mqm.atrf.octane.entities.TestRunResultEntity;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test results XML is consumed by ALM Octane, streamed XML must be identical to XML that was built by DOM
+ */
+public class TestResultXmlTest {
+
+    private static final String FAILED_STATUS = "Failed";
+
+    @Test
+    public void streamedXmlEqualsDomXml() throws Exception {
+        List<TestRunResultEntity> runs = createBulk();
+        assertEquals(toDomXml(runs, false), toStreamedXml(runs, false));
+    }
+
+    @Test
+    public void formattedStreamedXmlEqualsDomXml() throws Exception {
+        List<TestRunResultEntity> runs = createBulk();
+        assertEquals(toDomXml(runs, true), toStreamedXml(runs, true));
+    }
+
+    @Test
+    public void emptyBulk() throws Exception {
+        List<TestRunResultEntity> runs = new ArrayList<>();
+        assertEquals(toDomXml(runs, false), toStreamedXml(runs, false));
+        assertEquals(toDomXml(runs, true), toStreamedXml(runs, true));
+    }
+
+    private static List<TestRunResultEntity> createBulk() {
+        TestRunResultEntity plain = createRun("1", "Passed", "Manual");
+
+        TestRunResultEntity special = createRun("2", FAILED_STATUS, "QuickTest Professional");
+        special.setTestName("a & b < c > d \"quoted\" 'apostrophe'");
+        special.setClassValue("tab\tnew line\ncarriage return\r");
+        special.setPackageValue("non ascii \u00e9\u05d0\u4e2d, outside BMP \ud83d\ude00");
+        special.setModule("control \u0001\u001f chars");
+        special.setExternalReportUrl("td://project.domain.host:8080/qcbin/TestLabModule-000000003649890581?EntityType=IRun&EntityID=2&x=<>");
+
+        TestRunResultEntity empty = createRun("3", FAILED_STATUS, null);
+        empty.setTestName("");
+        empty.setClassValue("");
+        empty.setPackageValue("");
+        empty.setModule("");
+        empty.setDuration("");
+        empty.setRunName("");
+
+        TestRunResultEntity noTool = createRun("4", "Passed", "");
+
+        return Arrays.asList(plain, special, empty, noTool);
+    }
+
+    private static TestRunResultEntity createRun(String id, String status, String testingToolType) {
+        TestRunResultEntity run = new TestRunResultEntity();
+        run.setRunId(id);
+        run.setTestName("test" + id);
+        run.setTestingToolType(testingToolType);
+        run.setPackageValue("domain");
+        run.setClassValue("project");
+        run.setModule("module");
+        run.setDuration("1000");
+        run.setExternalReportUrl("td://project.domain.host:8080/qcbin/TestLabModule-000000003649890581?EntityType=IRun&EntityID=" + id);
+        run.setRunName("Run_" + id);
+        run.setStartedTime("1484222400000");
+        run.setStatus(status);
+        return run;
+    }
+
+    private static String toStreamedXml(List<TestRunResultEntity> runs, boolean formatXml) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        App.convertToXml(runs, out, formatXml);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Conversion of previous versions, that built DOM document and serialized it by Transformer
+     */
+    private static String toDomXml(List<TestRunResultEntity> runResults, boolean formatXml) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element rootElement = doc.createElement("test_result");
+        doc.appendChild(rootElement);
+
+        Element testRuns = doc.createElement("test_runs");
+        rootElement.appendChild(testRuns);
+
+        for (TestRunResultEntity runResult : runResults) {
+            Element testRun = doc.createElement("test_run");
+            testRuns.appendChild(testRun);
+
+            testRun.setAttribute("module", runResult.getModule());
+            testRun.setAttribute("package", runResult.getPackageValue());
+            testRun.setAttribute("class", runResult.getClassValue());
+            testRun.setAttribute("name", runResult.getTestName());
+
+            testRun.setAttribute("duration", runResult.getDuration());
+            testRun.setAttribute("status", runResult.getStatus());
+            testRun.setAttribute("started", runResult.getStartedTime());
+            testRun.setAttribute("external_report_url", runResult.getExternalReportUrl());
+            testRun.setAttribute("run_name", runResult.getRunName());
+
+            Element testFields = doc.createElement("test_fields");
+            testRun.appendChild(testFields);
+
+            if (StringUtils.isNotEmpty(runResult.getTestingToolType())) {
+                Element testField = doc.createElement("test_field");
+                testFields.appendChild(testField);
+                testField.setAttribute("type", "Testing_Tool_Type");
+                testField.setAttribute("value", runResult.getTestingToolType());
+            }
+
+            if (FAILED_STATUS.equals(runResult.getStatus())) {
+                Element error = doc.createElement("error");
+                testRun.appendChild(error);
+
+                error.setAttribute("type", "Error");
+                error.setAttribute("message", "For more details , goto ALM run : " + runResult.getExternalReportUrl());
+            }
+        }
+
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        if (formatXml) {
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        }
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transform(new DOMSource(doc), new StreamResult(out));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.alm.services;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.microfocus.mqm.atrf.alm.core.AlmEntity;
+import com.microfocus.mqm.atrf.alm.core.AlmEntityCollection;
+import com.microfocus.mqm.atrf.alm.entities.Run;
+import com.microfocus.mqm.atrf.core.rest.RestConnector;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming parser of ALM collections is compared with the json tree parsing it replaced
+ */
+public class AlmEntityServiceTest {
+
+    private final AlmEntityService service = new AlmEntityService(new RestConnector());
+
+    @Test
+    public void emptyCollection() throws IOException {
+        assertEquivalent("{\"entities\":[],\"TotalResults\":0}", StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void fieldValues() throws IOException {
+        String json = "{\"entities\":[{\"Fields\":[" +
+                "{\"Name\":\"id\",\"values\":[{\"value\":\"1\"}]}," +
+                "{\"Name\":\"name\",\"values\":[{\"value\":\"first\"},{\"value\":\"second\"}]}," +
+                "{\"Name\":\"comments\",\"values\":[{}]}," +
+                "{\"Name\":\"owner\",\"values\":[]}," +
+                "{\"Name\":\"duration\",\"values\":[{\"value\":15}]}," +
+                "{\"Name\":\"draft\",\"values\":[{\"value\":false}]}," +
+                "{\"Name\":\"test-id\",\"values\":[{\"value\":null}]}," +
+                "{\"Name\":\"status\",\"values\":[{\"value\":\"Passed\",\"ReferenceValue\":\"Passed\"}]}" +
+                "],\"Type\":\"run\",\"children-count\":0}],\"TotalResults\":1}";
+        AlmEntityCollection coll = assertEquivalent(json, StandardCharsets.UTF_8);
+        AlmEntity run = coll.getEntities().get(0);
+        assertTrue(run instanceof Run);
+        assertEquals("first", run.get("name"));
+        assertTrue(run.getFields().containsKey("owner"));
+        assertNull(run.get("owner"));
+        assertSame(JSONObject.NULL, run.get("test-id"));
+    }
+
+    @Test
+    public void typeBeforeFields() throws IOException {
+        assertEquivalent("{\"TotalResults\":2,\"entities\":[" +
+                "{\"Type\":\"test\",\"Fields\":[{\"Name\":\"id\",\"values\":[{\"value\":\"7\"}]}]}," +
+                "{\"Fields\":[{\"values\":[{\"value\":\"8\"}],\"Name\":\"id\"}],\"Type\":\"test\"}]}", StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void notUtf8Charset() throws IOException {
+        String json = "{\"entities\":[{\"Fields\":[{\"Name\":\"name\",\"values\":[{\"value\":\"caf\u00e9 \u00fcber\"}]}],\"Type\":\"run\"}],\"TotalResults\":1}";
+        assertEquivalent(json, StandardCharsets.ISO_8859_1);
+        assertEquivalent(json, StandardCharsets.UTF_16);
+    }
+
+    @Test
+    public void largePage() throws IOException {
+        StringBuilder sb = new StringBuilder("{\"entities\":[");
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("{\"Fields\":[");
+            sb.append(field("id", "\"" + i + "\"")).append(",");
+            sb.append(field("name", "\"Run_" + i + " \\\"quoted\\\" \\u05d0\"")).append(",");
+            sb.append(field("status", i % 3 == 0 ? "\"Failed\"" : "\"Passed\"")).append(",");
+            sb.append(field("test-id", "\"" + (i % 50) + "\"")).append(",");
+            sb.append(field("execution-date", "\"2026-10-17\"")).append(",");
+            sb.append("{\"Name\":\"comments\",\"values\":[{}]}");
+            sb.append("],\"Type\":\"run\"}");
+        }
+        sb.append("],\"TotalResults\":5000}");
+        AlmEntityCollection coll = assertEquivalent(sb.toString(), StandardCharsets.UTF_8);
+        assertEquals(1000, coll.getEntities().size());
+        assertEquals(5000, coll.getTotal());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void missingEntities() throws IOException {
+        parse("{\"TotalResults\":0}", StandardCharsets.UTF_8);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void notCollection() throws IOException {
+        parse("[]", StandardCharsets.UTF_8);
+    }
+
+    private AlmEntityCollection assertEquivalent(String json, Charset charset) throws IOException {
+        AlmEntityCollection expected = parseJsonTree(json);
+        AlmEntityCollection actual = parse(json, charset);
+        assertEquals(expected.getTotal(), actual.getTotal());
+        assertEquals(expected.getEntities().size(), actual.getEntities().size());
+        for (int i = 0; i < expected.getEntities().size(); i++) {
+            AlmEntity expectedEntity = expected.getEntities().get(i);
+            AlmEntity actualEntity = actual.getEntities().get(i);
+            assertEquals(expectedEntity.getClass(), actualEntity.getClass());
+            assertEquals(expectedEntity.getFields(), actualEntity.getFields());
+        }
+        return actual;
+    }
+
+    private AlmEntityCollection parse(String json, Charset charset) throws IOException {
+        return service.parseCollection(new ByteArrayInputStream(json.getBytes(charset)), charset);
+    }
+
+    /**
+     * Parsing of ALM collection by json tree, as it was done before streaming parser
+     */
+    private AlmEntityCollection parseJsonTree(String json) {
+        AlmEntityCollection coll = new AlmEntityCollection();
+        JSONObject jsonObj = new JSONObject(json);
+        coll.setTotal(jsonObj.getInt("TotalResults"));
+
+        JSONArray entitiesJArr = jsonObj.getJSONArray("entities");
+        for (int i = 0; i < entitiesJArr.length(); i++) {
+            JSONObject entObj = entitiesJArr.getJSONObject(i);
+            AlmEntity almEntity = service.createEntity(entObj.getString("Type"));
+
+            JSONArray fieldsJArr = entObj.getJSONArray("Fields");
+            for (int j = 0; j < fieldsJArr.length(); j++) {
+                JSONObject fieldObj = fieldsJArr.getJSONObject(j);
+                String name = fieldObj.getString("Name");
+                JSONArray valuesArr = fieldObj.getJSONArray("values");
+                boolean filled = false;
+                if (valuesArr.length() > 0) {
+                    JSONObject valueObj = valuesArr.getJSONObject(0);
+                    if (valueObj.has("value")) {
+                        almEntity.put(name, valueObj.get("value"));
+                        filled = true;
+                    }
+                }
+                if (!filled) {
+                    almEntity.put(name, null);
+                }
+            }
+            coll.getEntities().add(almEntity);
+        }
+        return coll;
+    }
+
+    private static String field(String name, String value) {
+        return "{\"Name\":\"" + name + "\",\"values\":[{\"value\":" + value + "}]}";
+    }
+}
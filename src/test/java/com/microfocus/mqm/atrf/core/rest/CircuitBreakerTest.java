@@ -0,0 +1,158 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        //open after 2 consecutive failures, probe right after opening
+        CircuitBreaker.configure(2, 0, CircuitBreaker.MAX_PAUSE_DEFAULT);
+        breaker = CircuitBreaker.get("http://host:8080", CircuitBreaker.Operation.ENTITY_GET);
+    }
+
+    @After
+    public void tearDown() {
+        CircuitBreaker.configure(CircuitBreaker.FAILURE_THRESHOLD_DEFAULT, CircuitBreaker.COOLDOWN_DEFAULT, CircuitBreaker.MAX_PAUSE_DEFAULT);
+    }
+
+    @Test
+    public void opensAfterConsecutiveEndpointFailures() {
+        breaker.acquire();
+        RuntimeException first = status(503);
+        assertSame(first, breaker.onFailure(first));
+        breaker.acquire();
+        RuntimeException second = breaker.onFailure(status(500));
+        assertTrue(second instanceof CircuitOpenException);
+    }
+
+    @Test
+    public void successResetsFailures() {
+        breaker.onFailure(status(503));
+        breaker.onSuccess();
+        assertFalse(breaker.onFailure(status(503)) instanceof CircuitOpenException);
+    }
+
+    @Test
+    public void transportFailureIsCounted() {
+        breaker.onFailure(transport());
+        assertTrue(breaker.onFailure(transport()) instanceof CircuitOpenException);
+    }
+
+    @Test
+    public void clientErrorAndParseFailureAreNeutral() {
+        breaker.onFailure(status(503));
+        breaker.onFailure(status(404));
+        breaker.onFailure(new RuntimeException("parse", new IOException("Unexpected character")));
+        //failures are not reset by neutral failures
+        assertTrue(breaker.onFailure(status(503)) instanceof CircuitOpenException);
+    }
+
+    @Test
+    public void halfOpenProbeSuccessClosesCircuit() {
+        open();
+        breaker.acquire();
+        assertOpen();
+        breaker.onSuccess();
+        breaker.acquire();
+        breaker.acquire();
+    }
+
+    @Test
+    public void halfOpenProbeFailureOpensCircuitAgain() {
+        open();
+        breaker.acquire();
+        assertTrue(breaker.onFailure(status(503)) instanceof CircuitOpenException);
+    }
+
+    @Test
+    public void halfOpenProbeAbortedByDeadlineKeepsCircuitHalfOpen() {
+        open();
+        breaker.acquire();
+        RuntimeException aborted = new DeadlineExceededException("Deadline is exceeded while GET");
+        assertSame(aborted, breaker.onFailure(aborted));
+
+        //probe is released, but the circuit is not closed : next request is the only probe again
+        breaker.acquire();
+        assertOpen();
+        //single failure of the new probe opens the circuit, as it is still half-open
+        assertTrue(breaker.onFailure(status(503)) instanceof CircuitOpenException);
+    }
+
+    @Test
+    public void deadlineAbortDoesNotResetFailures() {
+        breaker.onFailure(status(503));
+        breaker.onFailure(new DeadlineExceededException("Deadline is exceeded while GET"));
+        assertTrue(breaker.onFailure(status(503)) instanceof CircuitOpenException);
+    }
+
+    @Test
+    public void disabledBreakerIsNeverOpen() {
+        CircuitBreaker.configure(0, 0, CircuitBreaker.MAX_PAUSE_DEFAULT);
+        CircuitBreaker disabled = CircuitBreaker.get("http://host:8080", CircuitBreaker.Operation.ENTITY_GET);
+        for (int i = 0; i < 10; i++) {
+            disabled.acquire();
+            assertFalse(disabled.onFailure(status(503)) instanceof CircuitOpenException);
+        }
+    }
+
+    @Test
+    public void classify() {
+        assertEquals(CircuitBreaker.Operation.RESULTS_POST, CircuitBreaker.classify("POST", "/api/shared_spaces/1/workspaces/2/test-results"));
+        assertEquals(CircuitBreaker.Operation.STATUS_GET, CircuitBreaker.classify("GET", "/api/shared_spaces/1/workspaces/2/test-results/5"));
+        assertEquals(CircuitBreaker.Operation.ENTITY_GET, CircuitBreaker.classify("GET", "/rest/domains/d/projects/p/runs"));
+    }
+
+    private void open() {
+        breaker.onFailure(status(503));
+        assertTrue(breaker.onFailure(status(503)) instanceof CircuitOpenException);
+    }
+
+    private void assertOpen() {
+        try {
+            breaker.acquire();
+            fail("circuit should be open");
+        } catch (CircuitOpenException e) {
+            //expected
+        }
+    }
+
+    static RestStatusException status(int statusCode) {
+        Response response = new Response();
+        response.setStatusCode(statusCode);
+        response.setResponseData("Server returned HTTP response code: " + statusCode);
+        response.setResponseHeaders(Collections.emptyMap());
+        return new RestStatusException(response);
+    }
+
+    private static RuntimeException transport() {
+        return new RuntimeException("Read timed out", new SocketTimeoutException("Read timed out"));
+    }
+}
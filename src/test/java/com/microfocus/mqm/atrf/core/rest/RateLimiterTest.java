@@ -0,0 +1,90 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    @Test
+    public void burstUpToRateIsNotDelayed() {
+        String url = "http://rate-burst:8080";
+        RateLimiter.configure(url, 5, 0);
+        assertTrue(acquire(url, "GET", 5) < 100);
+        //token is refilled in 200 ms
+        assertTrue(acquire(url, "GET", 1) >= 100);
+    }
+
+    @Test
+    public void tokensAreRefilled() throws InterruptedException {
+        String url = "http://rate-refill:8080";
+        RateLimiter.configure(url, 10, 0);
+        acquire(url, "GET", 10);
+        Thread.sleep(350);
+        assertTrue(acquire(url, "GET", 3) < 100);
+    }
+
+    @Test
+    public void waitingRequestsAreQueued() {
+        String url = "http://rate-queue:8080";
+        RateLimiter.configure(url, 10, 0);
+        acquire(url, "GET", 10);
+        //each next request waits for its own token
+        assertTrue(acquire(url, "GET", 5) >= 400);
+    }
+
+    @Test
+    public void readAndWriteAreLimitedSeparately() {
+        String url = "http://rate-write:8080";
+        RateLimiter.configure(url, 0, 2);
+        assertTrue(acquire(url, "GET", 100) < 100);
+        assertTrue(acquire(url, "POST", 2) < 100);
+        assertTrue(acquire(url, "PUT", 1) >= 400);
+    }
+
+    @Test
+    public void lowestRateIsUsed() {
+        String url = "http://rate-lowest:8080";
+        RateLimiter.configure(url, 100, 0);
+        RateLimiter.configure(url, 2, 0);
+        RateLimiter.configure(url, 50, 0);
+        acquire(url, "GET", 2);
+        assertTrue(acquire(url, "GET", 1) >= 400);
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void tokenIsNotAwaitedBeyondDeadline() {
+        String url = "http://rate-deadline:8080";
+        RateLimiter.configure(url, 1, 0);
+        acquire(url, "GET", 1);
+        Deadline.call(Deadline.after(200), () -> acquire(url, "GET", 1));
+    }
+
+    /**
+     * @return time in ms of acquiring the tokens
+     */
+    private static long acquire(String url, String method, int count) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            RateLimiter.acquire(url + "/api", method);
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RestConnectorSessionTest {
+
+    private static final int THREADS = 8;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger logins = new AtomicInteger();
+    private volatile String session = "";
+
+    private RestConnector connector;
+
+    @Before
+    public void setUp() throws IOException {
+        serverExecutor = Executors.newFixedThreadPool(THREADS * 2);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/login", this::login);
+        server.createContext("/data", this::data);
+        server.start();
+
+        connector = new RestConnector();
+        connector.setBaseUrl("http://localhost:" + server.getAddress().getPort());
+        connector.setSupportRelogin(() -> connector.httpPost("/login", "", null).getStatusCode() == 200);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentUnauthorizedRequestsLoginOnce() throws Exception {
+        assertEquals(THREADS, sendConcurrently());
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    public void sessionExpiredAgainIsRenewedAgain() throws Exception {
+        assertEquals(THREADS, sendConcurrently());
+        session = "expired";
+        assertEquals(THREADS, sendConcurrently());
+        assertEquals(2, logins.get());
+    }
+
+    @Test
+    public void sessionIsRefreshedOnceBeforeExpiration() throws Exception {
+        connector.setSessionTtl(1);
+        assertTrue(connector.renewSession(() -> connector.httpPost("/login", "", null).getStatusCode() == 200));
+        assertEquals(THREADS, sendConcurrently());
+        assertEquals(1, logins.get());
+
+        //session of 1 sec is refreshed 100 ms before it expires
+        Thread.sleep(1000);
+        assertEquals(THREADS, sendConcurrently());
+        assertEquals(2, logins.get());
+    }
+
+    @Test
+    public void failedLoginIsNotTakenAsRenewal() throws Exception {
+        assertFalse(connector.renewSession(() -> false));
+        assertEquals(THREADS, sendConcurrently());
+        assertEquals(1, logins.get());
+    }
+
+    /**
+     * @return number of requests that succeeded
+     */
+    private int sendConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    return connector.httpGet("/data", null).getStatusCode();
+                }));
+            }
+            int succeeded = 0;
+            for (Future<Integer> future : futures) {
+                if (future.get(30, TimeUnit.SECONDS) == 200) {
+                    succeeded++;
+                }
+            }
+            return succeeded;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void login(HttpExchange exchange) throws IOException {
+        try {
+            //slow login, concurrent requests arrive while it runs
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        session = "s" + logins.incrementAndGet();
+        exchange.getResponseHeaders().add("Set-Cookie", "SESSION=" + session + "; Path=/");
+        respond(exchange, 200);
+    }
+
+    private void data(HttpExchange exchange) throws IOException {
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        boolean authorized = cookie != null && cookie.contains("SESSION=" + session + ";");
+        respond(exchange, authorized ? 200 : 401);
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        byte[] body = (status == 200 ? "ok" : "unauthorized").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class RestConnectorUploadTest {
+
+    private static final String BODY = "<test_result><test_runs><test_run name=\"run\" status=\"Passed\"/></test_runs></test_result>";
+
+    private HttpServer server;
+    private volatile String receivedEncoding;
+    private volatile String receivedTransferEncoding;
+    private volatile String receivedBody;
+
+    private RestConnector connector;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/upload", exchange -> {
+            receivedEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            receivedTransferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            InputStream in = "gzip".equals(receivedEncoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+            receivedBody = IOUtils.toString(in, StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(201, 2);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("{}".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.start();
+
+        connector = new RestConnector();
+        connector.setBaseUrl("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void streamedBody() {
+        assertEquals(201, connector.httpPost("/upload", out -> out.write(BODY.getBytes(StandardCharsets.UTF_8)), null, false).getStatusCode());
+        assertNull(receivedEncoding);
+        assertEquals("chunked", receivedTransferEncoding);
+        assertEquals(BODY, receivedBody);
+    }
+
+    @Test
+    public void compressedBody() {
+        assertEquals(201, connector.httpPost("/upload", out -> out.write(BODY.getBytes(StandardCharsets.UTF_8)), null, true).getStatusCode());
+        assertEquals("gzip", receivedEncoding);
+        assertEquals(BODY, receivedBody);
+    }
+
+    @Test
+    public void textBody() {
+        assertEquals(201, connector.httpPost("/upload", BODY, null).getStatusCode());
+        assertNull(receivedEncoding);
+        assertEquals(BODY, receivedBody);
+    }
+}
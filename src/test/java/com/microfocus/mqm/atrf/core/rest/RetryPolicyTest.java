@@ -0,0 +1,151 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.rest;
+
+import org.apache.http.client.utils.DateUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    private static final String SERVER = "http://retry-test:8080";
+
+    @Before
+    public void setUp() {
+        //no jitter on Retry-After, budget is only the reserve
+        RetryPolicy.configure(4, 0, 0, 0, RetryPolicy.STATUSES_DEFAULT, RetryPolicy.POST_STATUSES_DEFAULT);
+    }
+
+    @After
+    public void tearDown() {
+        RetryPolicy.configure(RetryPolicy.MAX_ATTEMPTS_DEFAULT, RetryPolicy.BASE_DELAY_DEFAULT, RetryPolicy.MAX_DELAY_DEFAULT,
+                RetryPolicy.BUDGET_PERCENT_DEFAULT, RetryPolicy.STATUSES_DEFAULT, RetryPolicy.POST_STATUSES_DEFAULT);
+    }
+
+    @Test
+    public void idempotentRequestIsRetriedOnServerErrorsAndTransportFailures() {
+        assertTrue(RetryPolicy.getRetryDelay("GET", SERVER + "/idempotent", status(502, null), 1) >= 0);
+        assertTrue(RetryPolicy.getRetryDelay("PUT", SERVER + "/idempotent", status(503, null), 1) >= 0);
+        assertTrue(RetryPolicy.getRetryDelay("DELETE", SERVER + "/idempotent", transport(new SocketTimeoutException("Read timed out")), 1) >= 0);
+    }
+
+    @Test
+    public void postIsRetriedOnlyWhenNotProcessed() {
+        String server = SERVER + "/post";
+        assertEquals(-1, RetryPolicy.getRetryDelay("POST", server, status(500, null), 1));
+        assertEquals(-1, RetryPolicy.getRetryDelay("POST", server, status(502, null), 1));
+        assertEquals(-1, RetryPolicy.getRetryDelay("POST", server, transport(new SocketTimeoutException("Read timed out")), 1));
+        assertTrue(RetryPolicy.getRetryDelay("POST", server, status(503, null), 1) >= 0);
+        assertTrue(RetryPolicy.getRetryDelay("POST", server, status(429, null), 1) >= 0);
+        //connection was not established, the request was not sent
+        assertTrue(RetryPolicy.getRetryDelay("POST", server, transport(new ConnectException("Connection refused")), 1) >= 0);
+    }
+
+    @Test
+    public void clientErrorsAndConfigurationProblemsAreNotRetried() {
+        String server = SERVER + "/client";
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", server, status(400, null), 1));
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", server, status(404, null), 1));
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", server, transport(new UnknownHostException("retry-test")), 1));
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", server, new RuntimeException("Unexpected character"), 1));
+    }
+
+    @Test
+    public void attemptsAreLimited() {
+        String server = SERVER + "/attempts";
+        assertTrue(RetryPolicy.getRetryDelay("GET", server, status(503, null), 3) >= 0);
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", server, status(503, null), 4));
+    }
+
+    @Test
+    public void backoffIsLimitedByMaxDelay() {
+        RetryPolicy.configure(10, 100, 500, 0, RetryPolicy.STATUSES_DEFAULT, RetryPolicy.POST_STATUSES_DEFAULT);
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long delay = RetryPolicy.getRetryDelay("GET", SERVER + "/backoff" + attempt, status(503, null), attempt);
+            assertTrue(delay >= 0 && delay <= Math.min(500, 100 << (attempt - 1)));
+        }
+    }
+
+    @Test
+    public void retryAfterInSeconds() {
+        assertEquals(3000, RetryPolicy.getRetryDelay("GET", SERVER + "/after", status(503, "3"), 1));
+        assertEquals(3000, RetryPolicy.getRetryDelay("POST", SERVER + "/after", status(429, "3"), 1));
+    }
+
+    @Test
+    public void retryAfterAsDate() {
+        String date = DateUtils.formatDate(new Date(System.currentTimeMillis() + 10000));
+        long delay = RetryPolicy.getRetryDelay("GET", SERVER + "/date", status(503, date), 1);
+        assertTrue(delay > 8000 && delay <= 10000);
+    }
+
+    @Test
+    public void tooLongRetryAfterIsNotAwaited() {
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", SERVER + "/long", status(503, "3600"), 1));
+    }
+
+    @Test
+    public void retriesAreLimitedByBudget() {
+        RetryPolicy.configure(4, 0, 0, 50, RetryPolicy.STATUSES_DEFAULT, RetryPolicy.POST_STATUSES_DEFAULT);
+        String server = SERVER + "/budget";
+        //reserve of 10 retries is spent
+        for (int i = 0; i < 10; i++) {
+            assertTrue(RetryPolicy.getRetryDelay("GET", server, status(503, null), 1) >= 0);
+        }
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", server, status(503, null), 1));
+
+        //each request adds half of retry
+        RetryPolicy.onRequest(server);
+        assertEquals(-1, RetryPolicy.getRetryDelay("GET", server, status(503, null), 1));
+        RetryPolicy.onRequest(server);
+        assertTrue(RetryPolicy.getRetryDelay("GET", server, status(503, null), 1) >= 0);
+
+        //budget is kept per server
+        assertTrue(RetryPolicy.getRetryDelay("GET", SERVER + "/other", status(503, null), 1) >= 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notValidStatus() {
+        RetryPolicy.parseStatuses("503,5o3");
+    }
+
+    private static RestStatusException status(int statusCode, String retryAfter) {
+        Response response = new Response();
+        response.setStatusCode(statusCode);
+        response.setResponseData("Server returned HTTP response code: " + statusCode);
+        Map<String, ? extends Iterable<String>> headers = retryAfter == null
+                ? Collections.<String, Iterable<String>>emptyMap()
+                : Collections.singletonMap("Retry-After", Collections.singletonList(retryAfter));
+        response.setResponseHeaders(headers);
+        return new RestStatusException(response);
+    }
+
+    private static RuntimeException transport(Exception cause) {
+        return new RuntimeException(cause.getMessage(), cause);
+    }
+}
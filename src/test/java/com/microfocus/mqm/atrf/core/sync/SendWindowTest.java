@@ -0,0 +1,94 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SendWindowTest {
+
+    private final List<String> watermarks = new ArrayList<>();
+    private SendWindow window;
+
+    @Before
+    public void setUp() {
+        window = new SendWindow(watermarks::add);
+        window.open(1, "100");
+        window.open(2, "200");
+        window.open(3, "300");
+    }
+
+    @Test
+    public void inOrderCloses() {
+        window.close(1, true);
+        window.close(2, true);
+        window.close(3, true);
+        assertEquals(Arrays.asList("100", "200", "300"), watermarks);
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    public void outOfOrderClosesWaitForLowerBulks() {
+        window.close(3, true);
+        window.close(2, true);
+        assertTrue(watermarks.isEmpty());
+        assertNull(window.getWatermark());
+        assertEquals(3, window.size());
+
+        window.close(1, true);
+        assertEquals(Arrays.asList("300"), watermarks);
+        assertEquals("300", window.getWatermark());
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    public void watermarkStopsBelowFailedBulk() {
+        window.close(2, false);
+        window.close(1, true);
+        window.close(3, true);
+        assertEquals(Arrays.asList("100"), watermarks);
+        assertEquals(2, window.size());
+
+        window.open(4, "400");
+        window.close(4, true);
+        assertEquals("100", window.getWatermark());
+    }
+
+    @Test
+    public void failedFirstBulkHoldsWatermark() {
+        window.close(3, true);
+        window.close(2, true);
+        window.close(1, false);
+        assertTrue(watermarks.isEmpty());
+        assertNull(window.getWatermark());
+    }
+
+    @Test
+    public void unknownBulkIsIgnored() {
+        window.close(5, true);
+        window.close(1, true);
+        window.close(1, true);
+        assertEquals(Arrays.asList("100"), watermarks);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import com.microfocus.mqm.atrf.octane.core.OctaneTestResultOutput;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SyncJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void notExistingJournal() throws IOException {
+        SyncJournal journal = new SyncJournal(new File(folder.getRoot(), "journal").getPath());
+        assertFalse(journal.load());
+        assertNull(journal.getWatermark());
+    }
+
+    @Test
+    public void reload() throws IOException {
+        File file = folder.newFile("journal");
+        SyncJournal journal = new SyncJournal(file.getPath());
+        assertTrue(journal.commit("100"));
+        journal.onBulkSent("101", "200", output(1, "queued"), null);
+        journal.onBulkSent("201", "300", output(2, "success"), null);
+        journal.onBulkSent("301", "400", output(3, "running"), null);
+        journal.commit("200");
+        journal.onJobCompleted(output(3, "failed"));
+        journal.close();
+
+        SyncJournal reloaded = load(file);
+        assertEquals("200", reloaded.getWatermark());
+        assertFalse(reloaded.isSent("150"));
+        assertTrue(reloaded.isSent("201"));
+        assertTrue(reloaded.isSent("400"));
+        assertFalse(reloaded.isSent("401"));
+        List<OctaneTestResultOutput> pending = reloaded.getPendingJobs();
+        assertEquals(1, pending.size());
+        assertEquals(Integer.valueOf(1), pending.get(0).getId());
+    }
+
+    @Test
+    public void tornLastRecordIsIgnored() throws IOException {
+        File file = folder.newFile("journal");
+        SyncJournal journal = new SyncJournal(file.getPath());
+        journal.commit("100");
+        journal.onBulkSent("101", "200", output(1, "queued"), null);
+        journal.commit("200");
+
+        //process was killed while the last record was written, the journal is not closed
+        byte[] content = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(content, content.length - 5));
+
+        SyncJournal reloaded = load(file);
+        assertEquals("100", reloaded.getWatermark());
+        assertTrue(reloaded.isSent("150"));
+        assertEquals(1, reloaded.getPendingJobs().size());
+
+        //journal is compacted, the torn record does not break records appended after reload
+        reloaded.commit("300");
+        reloaded.close();
+        SyncJournal reloadedAgain = load(file);
+        assertEquals("300", reloadedAgain.getWatermark());
+        assertEquals(1, reloadedAgain.getPendingJobs().size());
+    }
+
+    @Test
+    public void corruptedRecordIsIgnored() throws IOException {
+        File file = folder.newFile("journal");
+        SyncJournal journal = new SyncJournal(file.getPath());
+        journal.commit("100");
+        journal.close();
+
+        Files.write(file.toPath(), ("COMMIT\t500\t0\nnot a record\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals("100", load(file).getWatermark());
+    }
+
+    @Test
+    public void partitionedBulkIsNotTakenAsSentRange() throws IOException {
+        File file = folder.newFile("journal");
+        SyncJournal journal = new SyncJournal(file.getPath());
+        journal.onBulkSent("101", "200", output(1, "success"), "2026-10");
+        journal.close();
+        assertFalse(load(file).isSent("150"));
+    }
+
+    @Test
+    public void journalIsCompacted() throws IOException {
+        File file = folder.newFile("journal");
+        SyncJournal journal = new SyncJournal(file.getPath());
+        for (int i = 1; i <= SyncJournal.COMPACT_THRESHOLD + 10; i++) {
+            journal.onBulkSent(Integer.toString(i * 10 - 9), Integer.toString(i * 10), output(i, "success"), null);
+            journal.commit(Integer.toString(i * 10));
+        }
+        journal.close();
+
+        assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        assertEquals(Integer.toString((SyncJournal.COMPACT_THRESHOLD + 10) * 10), load(file).getWatermark());
+    }
+
+    @Test
+    public void failedCommitIsReported() throws IOException {
+        //journal path is a directory, it can not be written
+        SyncJournal journal = new SyncJournal(folder.newFolder("journal").getPath());
+        assertFalse(journal.commit("100"));
+        assertEquals("100", journal.getWatermark());
+    }
+
+    private static SyncJournal load(File file) {
+        SyncJournal journal = new SyncJournal(file.getPath());
+        assertTrue(journal.load());
+        return journal;
+    }
+
+    private static OctaneTestResultOutput output(int id, String status) {
+        OctaneTestResultOutput output = new OctaneTestResultOutput();
+        output.put(OctaneTestResultOutput.FIELD_ID, id);
+        output.put(OctaneTestResultOutput.FIELD_STATUS, status);
+        return output;
+    }
+}
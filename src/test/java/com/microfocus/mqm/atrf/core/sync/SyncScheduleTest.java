@@ -0,0 +1,130 @@
+/*
+ *     Copyright 2017 EntIT Software LLC, a Micro Focus company, L.P.
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+
+package com.microfocus.mqm.atrf.core.sync;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+public class SyncScheduleTest {
+
+    @Test
+    public void interval() {
+        long now = time(2026, 10, 17, 10, 30);
+        assertEquals(now + 15 * 60 * 1000, SyncSchedule.every(15).getNextTime(now));
+    }
+
+    @Test
+    public void nextMinute() {
+        assertNext("* * * * *", time(2026, 10, 17, 10, 30) + 25000, time(2026, 10, 17, 10, 31));
+    }
+
+    @Test
+    public void dailyAtTime() {
+        assertNext("30 2 * * *", time(2026, 10, 17, 10, 30), time(2026, 10, 18, 2, 30));
+        assertNext("30 2 * * *", time(2026, 10, 17, 2, 29), time(2026, 10, 17, 2, 30));
+        //the same minute is not returned again
+        assertNext("30 2 * * *", time(2026, 10, 17, 2, 30), time(2026, 10, 18, 2, 30));
+    }
+
+    @Test
+    public void stepsRangesAndLists() {
+        assertNext("*/15 * * * *", time(2026, 10, 17, 10, 31), time(2026, 10, 17, 10, 45));
+        assertNext("0 9-17/4 * * *", time(2026, 10, 17, 13, 1), time(2026, 10, 17, 17, 0));
+        assertNext("0 8,20 * * *", time(2026, 10, 17, 20, 0), time(2026, 10, 18, 8, 0));
+    }
+
+    @Test
+    public void endOfMonthAndYear() {
+        assertNext("0 0 31 * *", time(2026, 4, 1, 0, 0), time(2026, 5, 31, 0, 0));
+        assertNext("0 0 1 1 *", time(2026, 12, 31, 23, 59), time(2027, 1, 1, 0, 0));
+    }
+
+    @Test
+    public void februaryTwentyNinth() {
+        assertNext("0 0 29 2 *", time(2026, 3, 1, 0, 0), time(2028, 2, 29, 0, 0));
+        //2100 is not leap year
+        assertNext("0 0 29 2 *", time(2096, 3, 1, 0, 0), time(2104, 2, 29, 0, 0));
+    }
+
+    @Test
+    public void dayOfWeek() {
+        //17th of October 2026 is Saturday
+        assertNext("0 9 * * 1-5", time(2026, 10, 17, 10, 0), time(2026, 10, 19, 9, 0));
+        assertNext("0 9 * * 0", time(2026, 10, 17, 10, 0), time(2026, 10, 18, 9, 0));
+        assertNext("0 9 * * 7", time(2026, 10, 17, 10, 0), time(2026, 10, 18, 9, 0));
+    }
+
+    @Test
+    public void dayOfMonthOrDayOfWeek() {
+        //both restricted : any of them
+        assertNext("0 0 1 * 1", time(2026, 10, 17, 10, 0), time(2026, 10, 19, 0, 0));
+        assertNext("0 0 18 * 1", time(2026, 10, 17, 10, 0), time(2026, 10, 18, 0, 0));
+        //restricted by day of week only
+        assertNext("0 0 * 11 1", time(2026, 10, 17, 10, 0), time(2026, 11, 2, 0, 0));
+    }
+
+    @Test
+    public void dayOfMonthThatNeverExistsInMonths() {
+        assertInvalid("0 0 30 2 *");
+        assertInvalid("0 0 31 4,6,9,11 *");
+    }
+
+    @Test
+    public void dayOfMonthThatNeverExistsWithDayOfWeek() {
+        //day of week makes the expression fire
+        assertNext("0 0 30 2 1", time(2026, 10, 17, 10, 0), time(2027, 2, 1, 0, 0));
+    }
+
+    @Test
+    public void invalidFields() {
+        assertInvalid("0 0 * *");
+        assertInvalid("0 0 * * * *");
+        assertInvalid("60 * * * *");
+        assertInvalid("* 24 * * *");
+        assertInvalid("* * 0 * *");
+        assertInvalid("* * * 13 *");
+        assertInvalid("* * * * 8");
+        assertInvalid("5-1 * * * *");
+        assertInvalid("*/0 * * * *");
+        assertInvalid("a * * * *");
+        assertInvalid("1,,2 * * * *");
+    }
+
+    private static void assertNext(String expression, long after, long expected) {
+        assertEquals(expression, expected, SyncSchedule.cron(expression).getNextTime(after));
+    }
+
+    private static void assertInvalid(String expression) {
+        try {
+            SyncSchedule.cron(expression);
+            fail("Expression should not be valid : " + expression);
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}